@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,8 +17,12 @@ package com.diffplug.spotless.extra.eclipse.base;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -30,6 +34,7 @@ import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
+import org.slf4j.LoggerFactory;
 
 import com.diffplug.spotless.extra.eclipse.base.osgi.BundleConfig;
 import com.diffplug.spotless.extra.eclipse.base.osgi.BundleController;
@@ -127,6 +132,20 @@ public final class SpotlessEclipseFramework {
 		}
 	}
 
+	/** Phases of the framework startup, see {@link SpotlessEclipseFramework#getStartupTimes()}. */
+	public enum StartupPhase {
+		/** Creation of the bundle controller and registration of the framework services. */
+		SERVICES,
+		/** Start of the internal platform and activation of the core bundles. */
+		CORE_BUNDLES,
+		/** Parsing and registration of the plugin descriptions ({@code plugin.xml} and {@code plugin.properties}). */
+		PLUGIN_REGISTRY,
+		/** Activation of the plugins, excluding the registration of their descriptions. */
+		PLUGIN_ACTIVATION,
+		/** Customization after the plugin activation, which is mainly the parsing of the formatter preferences. */
+		CUSTOMIZE
+	}
+
 	private static <T> T createInstance(Class<? extends T> clazz) {
 		try {
 			Constructor<? extends T> ctor = clazz.getConstructor();
@@ -138,6 +157,8 @@ public final class SpotlessEclipseFramework {
 
 	private static SpotlessEclipseFramework INSTANCE = null;
 
+	private static final Map<StartupPhase, Duration> STARTUP_TIMES = new EnumMap<>(StartupPhase.class);
+
 	/**
 	 * Creates and configures a new {@link SpotlessEclipseFramework} using
 	 * {@link DefaultBundles}, {@link DefaultPlugins} and default {@link SpotlessEclipseServiceConfig}.
@@ -217,12 +238,15 @@ public final class SpotlessEclipseFramework {
 	 */
 	public synchronized static void setup(SpotlessEclipseConfig config) throws BundleException {
 		if (null == INSTANCE) {
+			long start = System.nanoTime();
 			INSTANCE = new SpotlessEclipseFramework();
 			config.registerServices(INSTANCE.getServiceConfig());
+			start = recordStartupTime(StartupPhase.SERVICES, start);
 
 			SpotlessEclipseCoreConfig coreConfig = new SpotlessEclipseCoreConfig();
 			config.registerBundles(coreConfig);
 			INSTANCE.startCoreBundles(coreConfig);
+			start = recordStartupTime(StartupPhase.CORE_BUNDLES, start);
 
 			SpotlessEclipsePluginConfig pluginConfig = new SpotlessEclipsePluginConfig();
 			config.activatePlugins(pluginConfig);
@@ -232,19 +256,46 @@ public final class SpotlessEclipseFramework {
 			for (BundleConfig.Entry plugin : pluginConfig.get()) {
 				INSTANCE.addPlugin(plugin.state, plugin.activator);
 			}
+			//The registration is part of adding the plugins, but is accounted separately
+			STARTUP_TIMES.put(StartupPhase.PLUGIN_REGISTRY, Duration.ofNanos(INSTANCE.registryNanos));
+			start = recordStartupTime(StartupPhase.PLUGIN_ACTIVATION, start + INSTANCE.registryNanos);
 
 			config.customize();
+			recordStartupTime(StartupPhase.CUSTOMIZE, start);
+
+			LoggerFactory.getLogger(SpotlessEclipseFramework.class).debug("Eclipse framework started in {} ms {}",
+					STARTUP_TIMES.values().stream().mapToLong(Duration::toMillis).sum(), getStartupTimes());
 		}
 	}
 
+	/**
+	 * Returns the time spent in each phase of the framework startup.
+	 * The map is empty, if the framework has not been set up yet.
+	 */
+	public synchronized static Map<StartupPhase, Duration> getStartupTimes() {
+		return Collections.unmodifiableMap(new EnumMap<>(STARTUP_TIMES));
+	}
+
+	private static long recordStartupTime(StartupPhase phase, long start) {
+		long end = System.nanoTime();
+		STARTUP_TIMES.put(phase, Duration.ofNanos(end - start));
+		return end;
+	}
+
 	private final Function<Bundle, BundleException> registry;
 	private final BundleController controller;
+	private long registryNanos = 0;
 
 	private SpotlessEclipseFramework() throws BundleException {
 
 		controller = new BundleController();
 		registry = (pluginBundle) -> {
-			return PluginRegistrar.register(pluginBundle);
+			long start = System.nanoTime();
+			try {
+				return PluginRegistrar.register(pluginBundle);
+			} finally {
+				registryNanos += System.nanoTime() - start;
+			}
 		};
 	}
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,7 +19,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -47,6 +49,9 @@ import org.osgi.service.packageadmin.RequiredBundle;
  * <p>
  * PackageAdmin interface is deprecated, but might still be used by bundles.
  * It is kept for backward compatibility until removed from Eclipse.
+ * <p>
+ * The platform looks up the same bundles over and over again, hence
+ * the symbolic names requested by a filter are only parsed once.
  */
 @SuppressWarnings("deprecation")
 class EclipseBundleLookup implements FrameworkWiring, PackageAdmin {
@@ -54,6 +59,7 @@ class EclipseBundleLookup implements FrameworkWiring, PackageAdmin {
 	private static final Set<String> OSGI_KEYS_FOR_SYMBOLIC_NAMES = Collections.unmodifiableSet(Stream.of(IdentityNamespace.IDENTITY_NAMESPACE, IdentityNamespace.TYPE_BUNDLE).collect(Collectors.toSet()));
 	private final Bundle systemBundle;
 	private final BundleSet bundles;
+	private final Map<String, Collection<String>> filterSpecToSymbolicNames = new ConcurrentHashMap<>();
 
 	EclipseBundleLookup(final Bundle systemBundle, final BundleSet bundles) {
 		this.systemBundle = systemBundle;
@@ -151,20 +157,23 @@ class EclipseBundleLookup implements FrameworkWiring, PackageAdmin {
 		if (null == filterSpec) {
 			throw new IllegalArgumentException("Requirement filter diretive '" + Namespace.REQUIREMENT_FILTER_DIRECTIVE + "' not found.");
 		}
-		try {
-			FilterImpl requirementFilter = FilterImpl.newInstance(filterSpec);
-			Collection<String> requiredSymbolicNames = getRequestedSymbolicNames(requirementFilter);
-			Collection<BundleCapability> capabilities = new ArrayList<BundleCapability>(requiredSymbolicNames.size());
-			requiredSymbolicNames.forEach(symbolicName -> {
-				Bundle bundle = bundles.get(symbolicName);
-				if (bundle != null) {
-					capabilities.add(new SimpleBundleCapability(bundle));
-				}
-			});
-			return capabilities;
-		} catch (InvalidSyntaxException e) {
-			throw new IllegalArgumentException("Filter specifiation invalid:\n" + filterSpec, e);
+		Collection<String> requiredSymbolicNames = filterSpecToSymbolicNames.get(filterSpec);
+		if (null == requiredSymbolicNames) {
+			try {
+				requiredSymbolicNames = getRequestedSymbolicNames(FilterImpl.newInstance(filterSpec));
+			} catch (InvalidSyntaxException e) {
+				throw new IllegalArgumentException("Filter specifiation invalid:\n" + filterSpec, e);
+			}
+			filterSpecToSymbolicNames.put(filterSpec, requiredSymbolicNames);
 		}
+		Collection<BundleCapability> capabilities = new ArrayList<BundleCapability>(requiredSymbolicNames.size());
+		requiredSymbolicNames.forEach(symbolicName -> {
+			Bundle bundle = bundles.get(symbolicName);
+			if (bundle != null) {
+				capabilities.add(new SimpleBundleCapability(bundle));
+			}
+		});
+		return capabilities;
 	}
 
 	/**
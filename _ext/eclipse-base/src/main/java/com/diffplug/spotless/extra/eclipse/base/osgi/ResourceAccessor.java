@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -21,6 +21,8 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
@@ -49,9 +51,14 @@ import com.diffplug.spotless.extra.eclipse.base.service.NoDebugging;
  * are mocked by Spotless, requiring the provision of multiple customized
  * plugin information (META-INF, plugin.xml) within one JAR.
  * </p>
+ * <p>
+ * The bundles of a fat JAR share one bundle file, so that the
+ * JAR is only opened and indexed once.
+ * </p>
  */
 class ResourceAccessor {
 	private static final Debug NO_DEBUGGING = new Debug(new NoDebugging());
+	private static final Map<File, BundleFile> BUNDLE_FILES = new ConcurrentHashMap<>();
 	private final String fatJarResourcePath;
 	private final BundleFile bundleFile;
 
@@ -78,11 +85,19 @@ class ResourceAccessor {
 		if (!(jarOrDirectory.exists() && jarOrDirectory.canRead())) {
 			throw new BundleException(String.format("Path '%s' for '%s' is not accessible exist on local file system.", objUri, clazz.getName()), BundleException.READ_ERROR);
 		}
-		try {
-			return jarOrDirectory.isDirectory() ? new DirBundleFile(jarOrDirectory, false) : new ZipBundleFile(jarOrDirectory, null, null, NO_DEBUGGING);
-		} catch (IOException e) {
-			throw new BundleException(String.format("Cannot access bundle at '%s'.", jarOrDirectory), BundleException.READ_ERROR, e);
+		BundleFile bundleFile = BUNDLE_FILES.get(jarOrDirectory);
+		if (null == bundleFile) {
+			try {
+				bundleFile = jarOrDirectory.isDirectory() ? new DirBundleFile(jarOrDirectory, false) : new ZipBundleFile(jarOrDirectory, null, null, NO_DEBUGGING);
+			} catch (IOException e) {
+				throw new BundleException(String.format("Cannot access bundle at '%s'.", jarOrDirectory), BundleException.READ_ERROR, e);
+			}
+			BundleFile existing = BUNDLE_FILES.putIfAbsent(jarOrDirectory, bundleFile);
+			if (null != existing) {
+				bundleFile = existing;
+			}
 		}
+		return bundleFile;
 	}
 
 	private static URI getBundleUri(Class<?> clazz) throws BundleException {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,6 +19,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 
 import java.io.PrintStream;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -120,6 +121,14 @@ public class SpotlessEclipseFrameworkTest {
 				.as("Customization method is only for SLF4J").doesNotContain(CUSTOM_PREFIX);
 	}
 
+	@Test
+	public void testStartupTimes() {
+		assertThat(SpotlessEclipseFramework.getStartupTimes())
+				.as("All startup phases are recorded.").containsOnlyKeys(SpotlessEclipseFramework.StartupPhase.values());
+		assertThat(SpotlessEclipseFramework.getStartupTimes().values())
+				.as("Startup times are never negative.").noneMatch(Duration::isNegative);
+	}
+
 	@Test
 	public void testCustomizedLogException() {
 		assertThatExceptionOfType(IllegalArgumentException.class)
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,6 +18,7 @@ package com.diffplug.spotless.extra.eclipse.wtp;
 import static com.diffplug.spotless.extra.eclipse.base.SpotlessEclipseFramework.LINE_DELIMITER;
 import static org.eclipse.wst.xml.core.internal.preferences.XMLCorePreferenceNames.*;
 
+import java.io.File;
 import java.util.Properties;
 
 import org.eclipse.jface.text.IDocumentPartitioner;
@@ -31,6 +32,7 @@ import org.eclipse.wst.xml.core.internal.XMLCorePlugin;
 import org.eclipse.wst.xml.core.internal.catalog.Catalog;
 import org.eclipse.wst.xml.core.internal.contentmodel.modelquery.CMDocumentManager;
 import org.eclipse.wst.xml.core.internal.contentmodel.modelquery.ModelQuery;
+import org.eclipse.wst.xml.core.internal.contentmodel.util.CMDocumentCache;
 import org.eclipse.wst.xml.core.internal.document.DOMModelImpl;
 import org.eclipse.wst.xml.core.internal.formatter.DefaultXMLPartitionFormatter;
 import org.eclipse.wst.xml.core.internal.formatter.XMLFormattingPreferences;
@@ -46,6 +48,8 @@ import com.diffplug.spotless.extra.eclipse.base.SpotlessEclipseConfig;
 import com.diffplug.spotless.extra.eclipse.base.SpotlessEclipseFramework;
 import com.diffplug.spotless.extra.eclipse.base.SpotlessEclipsePluginConfig;
 import com.diffplug.spotless.extra.eclipse.base.SpotlessEclipseServiceConfig;
+import com.diffplug.spotless.extra.eclipse.wtp.sse.CatalogSnapshot;
+import com.diffplug.spotless.extra.eclipse.wtp.sse.ContentModelCache;
 import com.diffplug.spotless.extra.eclipse.wtp.sse.PluginPreferences;
 import com.diffplug.spotless.extra.eclipse.wtp.sse.PreventExternalURIResolverExtension;
 
@@ -54,6 +58,7 @@ public class EclipseXmlFormatterStepImpl {
 	private final DefaultXMLPartitionFormatter formatter;
 	private final XMLFormattingPreferences preferences;
 	private final INodeAdapterFactory xmlAdapterFactory;
+	private final ContentModelCache contentModelCache;
 
 	public EclipseXmlFormatterStepImpl(Properties properties) throws Exception {
 		SpotlessEclipseFramework.setup(new FrameworkConfig(properties));
@@ -62,6 +67,9 @@ public class EclipseXmlFormatterStepImpl {
 		formatter = new DefaultXMLPartitionFormatter();
 		//The adapter factory maintains the common CMDocumentCache
 		xmlAdapterFactory = new ModelQueryAdapterFactoryForXML();
+		File snapshot = PluginPreferences.getSchemaSnapshot(properties);
+		contentModelCache = new ContentModelCache(PluginPreferences.getContentModelCacheSize(properties),
+				null == snapshot ? null : new CatalogSnapshot(snapshot));
 	}
 
 	static class FrameworkConfig implements SpotlessEclipseConfig {
@@ -72,11 +80,7 @@ public class EclipseXmlFormatterStepImpl {
 			 * The cache is only used for system catalogs, but not for user catalogs.
 			 * It requires the SSECorePLugin, which has either a big performance overhead,
 			 * or needs a dirty mocking (we don't really require its functions but it needs to be there).
-			 * So we disable the cache for now.
-			 * This might cause a performance drop in case for example XSDs are formatted.
-			 * But these standard/system restriction files contain anyway no formatting rules.
-			 * So in case of performance inconveniences, we could add a Spotless property to disable the
-			 * XSD/DTD parsing entirely (for example by adding an own URI resolver).
+			 * So we disable the cache, and use the ContentModelCache instead.
 			 */
 			properties.setProperty(CMDOCUMENT_GLOBAL_CACHE_ENABLED, Boolean.toString(false));
 			this.properties = properties;
@@ -132,6 +136,19 @@ public class EclipseXmlFormatterStepImpl {
 		xmlDOM.setStructuredDocument(document);
 		ModelQuery modelQuery = ModelQueryUtil.getModelQuery(xmlDOM);
 		modelQuery.getCMDocumentManager().setPropertyEnabled(CMDocumentManager.PROPERTY_USE_CACHED_RESOLVED_URI, true);
+		if (contentModelCache.isDisabled()) {
+			return format(xmlDOM, document);
+		}
+		CMDocumentCache cmDocumentCache = modelQuery.getCMDocumentManager().getCMDocumentCache();
+		contentModelCache.connect(cmDocumentCache);
+		try {
+			return format(xmlDOM, document);
+		} finally {
+			contentModelCache.disconnect(cmDocumentCache);
+		}
+	}
+
+	private String format(DOMModelImpl xmlDOM, IStructuredDocument document) throws Exception {
 		TextEdit formatterChanges = formatter.format(xmlDOM, 0, document.getLength(), preferences);
 		formatterChanges.apply(document);
 		return document.get();
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra.eclipse.wtp.sse;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Local copies of the external XSDs/DTDs, which have been resolved while formatting.
+ * <p>
+ * The copies are stored in a directory structure mirroring their URIs
+ * (scheme/host/path), so that relative references between them still resolve.
+ * An XML catalog in the snapshot directory maps the external URIs to the copies.
+ * It is read by {@link PluginPreferences#configureCatalog}, so that later builds,
+ * also offline ones, do not access the external URIs again.
+ * </p>
+ */
+public class CatalogSnapshot {
+	/** Name of the catalog within the snapshot directory */
+	public static final String CATALOG = "catalog.xml";
+
+	private final File dir;
+	private final Map<String, String> systemIdToPath;
+
+	public CatalogSnapshot(File dir) {
+		this.dir = Objects.requireNonNull(dir, "Snapshot directory is missing.");
+		systemIdToPath = readCatalog(getCatalog(dir));
+	}
+
+	/** Returns the catalog file of the snapshot directory. */
+	public static File getCatalog(File dir) {
+		return new File(dir, CATALOG);
+	}
+
+	/** Stores a copy of an external XSD/DTD, in case the URI has not already been recorded. */
+	public synchronized void record(String uri, byte[] content) {
+		if (systemIdToPath.containsKey(uri)) {
+			return;
+		}
+		String path = toPath(uri);
+		if (null == path) {
+			return;
+		}
+		try {
+			Path copy = dir.toPath().resolve(path);
+			Files.createDirectories(copy.getParent());
+			write(copy, content);
+			systemIdToPath.put(uri, path);
+			writeCatalog();
+		} catch (IOException e) {
+			//The snapshot only spares external access in later builds, so failures are ignored.
+			systemIdToPath.remove(uri);
+		}
+	}
+
+	/** Relative path mirroring an external URI, or null if the URI is not suited for a snapshot. */
+	private static String toPath(String uri) {
+		URI parsed;
+		try {
+			parsed = new URI(uri).normalize();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+		String scheme = parsed.getScheme();
+		String host = parsed.getHost();
+		String path = parsed.getPath();
+		if (!("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) || null == host || null == path
+				|| null != parsed.getQuery() || null != parsed.getFragment()
+				|| !path.startsWith("/") || path.endsWith("/") || path.contains("/..")) {
+			return null;
+		}
+		String authority = -1 == parsed.getPort() ? host : host + "_" + parsed.getPort();
+		return scheme.toLowerCase() + "/" + authority.toLowerCase() + path;
+	}
+
+	private void writeCatalog() throws IOException {
+		Path catalog = getCatalog(dir).toPath();
+		Path tmp = Files.createTempFile(dir.toPath(), CATALOG, ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp, UTF_8)) {
+				writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+				writer.write("<catalog xmlns=\"urn:oasis:names:tc:entity:xmlns:xml:catalog\">\n");
+				for (Map.Entry<String, String> entry : systemIdToPath.entrySet()) {
+					writer.write("  <system systemId=\"" + escape(entry.getKey()) + "\" uri=\"" + escape(entry.getValue()) + "\" />\n");
+					writer.write("  <uri name=\"" + escape(entry.getKey()) + "\" uri=\"" + escape(entry.getValue()) + "\" />\n");
+				}
+				writer.write("</catalog>\n");
+			}
+			Files.move(tmp, catalog, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/** Write then move, so that concurrent builds never see a partial copy. */
+	private static void write(Path file, byte[] content) throws IOException {
+		Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, content);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static Map<String, String> readCatalog(File catalog) {
+		Map<String, String> systemIdToPath = new TreeMap<>();
+		if (!catalog.isFile()) {
+			return systemIdToPath;
+		}
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			NodeList systemEntries = factory.newDocumentBuilder().parse(catalog).getElementsByTagNameNS("*", "system");
+			for (int i = 0; i < systemEntries.getLength(); i++) {
+				Element systemEntry = (Element) systemEntries.item(i);
+				systemIdToPath.put(systemEntry.getAttribute("systemId"), systemEntry.getAttribute("uri"));
+			}
+		} catch (Exception e) {
+			throw new IllegalArgumentException(String.format("Snapshot catalog '%s' cannot be read.", catalog), e);
+		}
+		return systemIdToPath;
+	}
+
+	private static String escape(String value) {
+		return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+	}
+}
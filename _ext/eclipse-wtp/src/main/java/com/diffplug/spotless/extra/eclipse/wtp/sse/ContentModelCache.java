@@ -0,0 +1,230 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra.eclipse.wtp.sse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.wst.xml.core.internal.contentmodel.CMDocument;
+import org.eclipse.wst.xml.core.internal.contentmodel.util.CMDocumentCache;
+import org.eclipse.wst.xml.core.internal.contentmodel.util.CMDocumentCacheListener;
+
+/**
+ * The WTP global content model (XSD/DTD) cache is disabled for Spotless,
+ * since it requires the SSE core plugin.
+ * Without a cache, each formatted file parses its XSDs/DTDs again.
+ * <p>
+ * This cache collects the content models loaded while formatting one file,
+ * and provides them to the models of the following files.
+ * The content models are keyed by their resolved URI. A content model is
+ * only reused as long as the content of its resolved URI has the same hash.
+ * For local files, the content is only hashed again if its size or
+ * modification time changed. Other URIs (for example schemas within JARs)
+ * are considered to be immutable.
+ * </p>
+ * <p>
+ * The number of content models is bounded. When the limit is reached, the
+ * content models loaded first are evicted first.
+ * </p>
+ */
+public class ContentModelCache implements CMDocumentCacheListener {
+	private final int maxEntries;
+	private final CatalogSnapshot snapshot;
+	private final Map<String, Entry> entries;
+
+	/**
+	 * @param maxEntries maximum number of content models kept, zero disables the cache
+	 * @param snapshot optional snapshot of external content models, or null
+	 */
+	public ContentModelCache(int maxEntries, CatalogSnapshot snapshot) {
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException("The maximum number of cached content models must not be negative.");
+		}
+		this.maxEntries = maxEntries;
+		this.snapshot = snapshot;
+		entries = new LinkedHashMap<String, Entry>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > ContentModelCache.this.maxEntries;
+			}
+		};
+	}
+
+	/** Returns true if neither content models are cached, nor a snapshot is recorded. */
+	public boolean isDisabled() {
+		return maxEntries == 0 && null == snapshot;
+	}
+
+	/**
+	 * Provides the cached content models to the cache of a model,
+	 * and collects the content models it loads until {@link #disconnect(CMDocumentCache)}.
+	 */
+	public synchronized void connect(CMDocumentCache modelCache) {
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Entry> entry = iterator.next();
+			String uri = entry.getKey();
+			if (!entry.getValue().isUpToDate(uri)) {
+				iterator.remove();
+			} else if (CMDocumentCache.STATUS_NOT_LOADED == modelCache.getStatus(uri)) {
+				modelCache.putCMDocument(uri, entry.getValue().cmDocument);
+			}
+		}
+		modelCache.addListener(this);
+	}
+
+	/** Stops collecting content models loaded by the cache of a model. */
+	public void disconnect(CMDocumentCache modelCache) {
+		modelCache.removeListener(this);
+	}
+
+	@Override
+	public void cacheCleared(CMDocumentCache modelCache) {
+		//The cache of the model is cleared, but the content models are still valid.
+	}
+
+	@Override
+	public void cacheUpdated(CMDocumentCache modelCache, String uri, int oldStatus, int newStatus, CMDocument cmDocument) {
+		if (CMDocumentCache.STATUS_LOADED != newStatus || null == cmDocument || null == uri) {
+			return;
+		}
+		Stamp stamp = Stamp.of(uri);
+		byte[] content;
+		try {
+			content = read(uri);
+		} catch (IOException | IllegalArgumentException | URISyntaxException e) {
+			//Content cannot be hashed, hence it is neither cached nor recorded.
+			return;
+		}
+		if (null != snapshot) {
+			snapshot.record(uri, content);
+		}
+		if (maxEntries > 0) {
+			synchronized (this) {
+				entries.put(uri, new Entry(cmDocument, hash(content), stamp));
+			}
+		}
+	}
+
+	private static byte[] read(String uri) throws IOException, URISyntaxException {
+		File file = Stamp.toFile(uri);
+		if (null != file) {
+			return Files.readAllBytes(file.toPath());
+		}
+		try (InputStream input = new URL(uri).openStream()) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int numRead;
+			while ((numRead = input.read(buffer)) != -1) {
+				output.write(buffer, 0, numRead);
+			}
+			return output.toByteArray();
+		}
+	}
+
+	private static byte[] hash(byte[] content) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 digest algorithm not available", e);
+		}
+	}
+
+	private static final class Entry {
+		final CMDocument cmDocument;
+		final byte[] hash;
+		Stamp stamp;
+
+		Entry(CMDocument cmDocument, byte[] hash, Stamp stamp) {
+			this.cmDocument = cmDocument;
+			this.hash = hash;
+			this.stamp = stamp;
+		}
+
+		/** Content is only hashed again, if the file has been modified. */
+		boolean isUpToDate(String uri) {
+			if (null == stamp) {
+				return true;
+			}
+			Stamp current = Stamp.of(uri);
+			if (stamp.equals(current)) {
+				return true;
+			}
+			try {
+				if (Arrays.equals(hash, hash(read(uri)))) {
+					stamp = current;
+					return true;
+				}
+			} catch (IOException | IllegalArgumentException | URISyntaxException e) {
+				//Content vanished, so the content model is outdated.
+			}
+			return false;
+		}
+	}
+
+	/** Size and modification time of local files, null for other URIs. */
+	private static final class Stamp {
+		final long size;
+		final long lastModified;
+
+		private Stamp(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		static Stamp of(String uri) {
+			try {
+				File file = toFile(uri);
+				return null == file ? null : new Stamp(file.length(), file.lastModified());
+			} catch (IllegalArgumentException | URISyntaxException e) {
+				return null;
+			}
+		}
+
+		static File toFile(String uri) throws URISyntaxException {
+			URI parsed = new URI(uri);
+			return "file".equalsIgnoreCase(parsed.getScheme()) ? new File(parsed) : null;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Stamp)) {
+				return false;
+			}
+			Stamp other = (Stamp) obj;
+			return size == other.size && lastModified == other.lastModified;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+		}
+	}
+}
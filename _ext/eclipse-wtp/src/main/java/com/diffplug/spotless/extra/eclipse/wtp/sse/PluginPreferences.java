@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -61,6 +61,29 @@ public class PluginPreferences {
 	 */
 	public static final String RESOLVE_EXTERNAL_URI = "resolveExternalURI";
 
+	/**
+	 * Maximum number of XSD/DTD content models, which are kept
+	 * by a formatter for the following files. Zero disables the cache.
+	 * <p>
+	 * Value is of type <code>Integer</code>.
+	 * </p>
+	 */
+	public static final String CONTENT_MODEL_CACHE_SIZE = "contentModelCacheSize";
+
+	/** Default value of {@link #CONTENT_MODEL_CACHE_SIZE} */
+	public static final int CONTENT_MODEL_CACHE_SIZE_DEFAULT = 32;
+
+	/**
+	 * Optional directory in which copies of the resolved external XSDs/DTDs
+	 * are stored, together with a catalog referring to them.
+	 * The catalog is applied in later builds, so that they don't
+	 * need to access the external URIs anymore.
+	 * <p>
+	 * Value is of type {@code Path}.
+	 * </p>
+	 */
+	public static final String SCHEMA_SNAPSHOT = "schemaSnapshot";
+
 	/** Storage of latest global configuration */
 	private static final Map<String, Properties> CONFIG = new HashMap<>();
 
@@ -69,6 +92,26 @@ public class PluginPreferences {
 		return Boolean.parseBoolean(properties.getProperty(PluginPreferences.RESOLVE_EXTERNAL_URI, "false"));
 	}
 
+	/** \return Maximum number of cached content models */
+	public static int getContentModelCacheSize(Properties properties) {
+		String value = properties.getProperty(CONTENT_MODEL_CACHE_SIZE, Integer.toString(CONTENT_MODEL_CACHE_SIZE_DEFAULT));
+		try {
+			int size = Integer.parseInt(value.trim());
+			if (size >= 0) {
+				return size;
+			}
+		} catch (NumberFormatException ignore) {
+			//Reported below
+		}
+		throw new IllegalArgumentException(String.format("Value of '%s' must be a non-negative integer, but is '%s'.", CONTENT_MODEL_CACHE_SIZE, value));
+	}
+
+	/** \return The snapshot directory, or null if none is configured */
+	public static File getSchemaSnapshot(Properties properties) {
+		String snapshotProperty = properties.getProperty(SCHEMA_SNAPSHOT, "");
+		return snapshotProperty.isEmpty() ? null : new File(snapshotProperty);
+	}
+
 	/** Configures persistent Eclipse properties */
 	public static void configure(Plugin plugin, AbstractPreferenceInitializer defaultInitializer, Properties properties) {
 		defaultInitializer.initializeDefaultPreferences();
@@ -98,20 +141,27 @@ public class PluginPreferences {
 		Catalog defaultCatalog = (Catalog) defaultCatalogInterface;
 		String catalogProperty = properties.getProperty(USER_CATALOG, "");
 		if (!catalogProperty.isEmpty()) {
-			final File catalogFile = new File(catalogProperty);
-			try {
-				InputStream inputStream = new FileInputStream(catalogFile);
-				String orgBase = defaultCatalog.getBase();
-				defaultCatalog.setBase(catalogFile.toURI().toString());
-				CatalogReader.read((Catalog) defaultCatalog, inputStream);
-				defaultCatalog.setBase(orgBase);
-			} catch (IOException e) {
-				throw new IllegalArgumentException(
-						String.format("Value of '%s' refers to '%s', which cannot be read.", USER_CATALOG, catalogFile));
-			}
+			readCatalog(defaultCatalog, new File(catalogProperty), USER_CATALOG);
 		} else {
 			defaultCatalog.clear();
 		}
+		File snapshot = getSchemaSnapshot(properties);
+		if (null != snapshot && CatalogSnapshot.getCatalog(snapshot).isFile()) {
+			//Entries of the user catalog take precedence, since they are read first
+			readCatalog(defaultCatalog, CatalogSnapshot.getCatalog(snapshot), SCHEMA_SNAPSHOT);
+		}
+	}
+
+	private static void readCatalog(Catalog catalog, File catalogFile, String property) {
+		try (InputStream inputStream = new FileInputStream(catalogFile)) {
+			String orgBase = catalog.getBase();
+			catalog.setBase(catalogFile.toURI().toString());
+			CatalogReader.read(catalog, inputStream);
+			catalog.setBase(orgBase);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(
+					String.format("Value of '%s' refers to '%s', which cannot be read.", property, catalogFile));
+		}
 	}
 
 	/** Throws exception in case configuration has changed */
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -99,6 +99,16 @@ public class EclipseXmlFormatterStepImplTest {
 				testData.expected("xsd_relative.test"), output);
 	}
 
+	@Test
+	public void xsdReusedByFollowingFiles() throws Throwable {
+		String[] input = testData.input("xsd_relative.test");
+		for (int i = 0; i < 3; i++) {
+			String output = formatter.format(input[0], input[1]);
+			assertEquals("Cached XSD not applied to following files.",
+					testData.expected("xsd_relative.test"), output);
+		}
+	}
+
 	@Test
 	public void xsdExternalPath() throws Throwable {
 		String[] input = testData.input("xsd_external.test");
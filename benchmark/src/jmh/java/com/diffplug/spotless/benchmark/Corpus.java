@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic source files of roughly the given number of lines, so that the benchmarks don't depend
+ * on any checked-in corpus.  Each file is generated from a fixed seed, so every run sees the same
+ * input.  The content is deliberately a little messy (mixed indentation, trailing whitespace, imports
+ * out of order, an out-of-date license header), so that the generic steps have real work to do.
+ */
+final class Corpus {
+	private Corpus() {}
+
+	private static final String[] IMPORTS = {
+			"java.util.List", "java.util.Map", "java.io.File", "java.io.IOException",
+			"javax.annotation.Nullable", "org.junit.Test", "org.slf4j.Logger",
+			"com.example.util.Strings", "com.example.util.Numbers", "com.diffplug.common.base.Errors"};
+
+	/** Unix-newline Java source of roughly the given number of lines. */
+	static String java(int lines) {
+		Random random = new Random(lines);
+		StringBuilder builder = new StringBuilder();
+		// an out-of-date header, which the license header step has to replace
+		builder.append("/*\n * Copyright 2019 Someone Else\n */\n");
+		builder.append("package com.example.generated;\n\n");
+		List<String> imports = new ArrayList<>();
+		Collections.addAll(imports, IMPORTS);
+		Collections.shuffle(imports, random);
+		for (String imported : imports) {
+			builder.append("import ").append(imported).append(";\n");
+		}
+		builder.append("\npublic class Generated {\n");
+		int line = imports.size() + 7;
+		for (int method = 0; line < lines; ++method) {
+			String indent = random.nextBoolean() ? "\t" : "    ";
+			String trailing = random.nextInt(4) == 0 ? "  " : "";
+			builder.append(indent).append("private int field").append(method).append(" = ").append(method).append(";").append(trailing).append('\n');
+			builder.append(indent).append("public int method").append(method).append("(int a) {\n");
+			builder.append(indent).append(indent).append("int x = a + field").append(method).append(";").append(trailing).append('\n');
+			builder.append(indent).append(indent).append("if (x > ").append(random.nextInt(100)).append(") {\n");
+			builder.append(indent).append(indent).append(indent).append("return x * 2;\n");
+			builder.append(indent).append(indent).append("}\n");
+			builder.append(indent).append(indent).append("return x;").append(trailing).append('\n');
+			builder.append(indent).append("}\n\n");
+			line += 8;
+		}
+		builder.append("}\n");
+		return builder.toString();
+	}
+
+	/** Unix-newline Kotlin source of roughly the given number of lines, which ktlint accepts. */
+	static String kotlin(int lines) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("package com.example.generated\n\n");
+		builder.append("class Generated {\n");
+		int line = 3;
+		for (int method = 0; line < lines; ++method) {
+			if (method > 0) {
+				builder.append('\n');
+			}
+			builder.append("    fun method").append(method).append("(a: Int): Int {\n");
+			builder.append("        val x = a + ").append(method).append('\n');
+			builder.append("        if (x > 10) {\n");
+			builder.append("            return x * 2\n");
+			builder.append("        }\n");
+			builder.append("        return x\n");
+			builder.append("    }\n");
+			line += 8;
+		}
+		builder.append("}\n");
+		return builder.toString();
+	}
+
+	/** Unix-newline Scala source of roughly the given number of lines. */
+	static String scala(int lines) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("package com.example.generated\n\n");
+		builder.append("object Generated {\n");
+		int line = 3;
+		for (int method = 0; line < lines; ++method) {
+			builder.append("  def method").append(method).append("(a: Int): Int = {\n");
+			builder.append("    val x = a + ").append(method).append('\n');
+			builder.append("    if (x > 10) x * 2\n");
+			builder.append("    else x\n");
+			builder.append("  }\n\n");
+			line += 6;
+		}
+		builder.append("}\n");
+		return builder.toString();
+	}
+
+	/** Returns the given content with windows newlines. */
+	static String windows(String unix) {
+		return unix.replace("\n", "\r\n");
+	}
+
+	/** The license header which the generated java files should have. */
+	static final String LICENSE_HEADER = "/*\n * Copyright $YEAR Example\n *\n * Licensed under the Apache License, Version 2.0\n */\n";
+}
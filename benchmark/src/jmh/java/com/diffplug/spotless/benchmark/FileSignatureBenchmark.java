@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.diffplug.spotless.FileSignature;
+
+/**
+ * Signing a set of jar-sized files, both when the in-memory cache can be used, and when every
+ * file looks modified and so has to be hashed again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FileSignatureBenchmark {
+	@Param({"10"})
+	int files;
+
+	@Param({"16", "1024"})
+	int sizeKB;
+
+	@Param({"cached", "modified"})
+	String state;
+
+	Path dir;
+	List<File> toSign;
+	long lastModified;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("spotless-benchmark");
+		Random random = new Random(files * sizeKB);
+		byte[] content = new byte[sizeKB * 1024];
+		toSign = new ArrayList<>(files);
+		for (int i = 0; i < files; ++i) {
+			random.nextBytes(content);
+			Path file = dir.resolve("file" + i + ".jar");
+			Files.write(file, content);
+			toSign.add(file.toFile());
+		}
+		lastModified = toSign.get(0).lastModified();
+		FileSignature.signAsList(toSign);
+	}
+
+	@Setup(Level.Invocation)
+	public void touch() {
+		if (state.equals("modified")) {
+			// a new last-modified time invalidates the cache
+			lastModified += 1000;
+			for (File file : toSign) {
+				file.setLastModified(lastModified);
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public FileSignature signAsList() throws IOException {
+		return FileSignature.signAsList(toSign);
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.diffplug.spotless.FormatterStep;
+
+/** A single generic step, applied to a java file which it has to change. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GenericStepBenchmark {
+	@Param({Steps.INDENT, Steps.TRIM_TRAILING_WHITESPACE, Steps.LICENSE_HEADER, Steps.IMPORT_ORDER})
+	String step;
+
+	@Param({"100", "1000", "10000"})
+	int lines;
+
+	FormatterStep formatterStep;
+	String input;
+	File file;
+
+	@Setup
+	public void setup() throws Exception {
+		formatterStep = Steps.create(step);
+		input = Corpus.java(lines);
+		file = new File("Generated.java");
+		// creates the FormatterFunc outside of the measurement
+		formatterStep.format(input, file);
+	}
+
+	@Benchmark
+	public String format() throws Exception {
+		return formatterStep.format(input, file);
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.benchmark;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.diffplug.spotless.FormatterStep;
+import com.diffplug.spotless.java.GoogleJavaFormatStep;
+import com.diffplug.spotless.kotlin.KtLintStep;
+import com.diffplug.spotless.scala.ScalaFmtStep;
+
+/**
+ * The formatters which run inside the JVM from their own classloader.  Each one formats a synthetic
+ * file in its own language, and the jars come from {@link LocalJarsProvisioner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JvmFormatterBenchmark {
+	@Param({"googleJavaFormat", "ktlint", "scalafmt"})
+	String formatter;
+
+	@Param({"100", "1000"})
+	int lines;
+
+	Path dir;
+	FormatterStep step;
+	String input;
+	File file;
+
+	@Setup
+	public void setup() throws Exception {
+		LocalJarsProvisioner provisioner = new LocalJarsProvisioner();
+		dir = Files.createTempDirectory("spotless-benchmark");
+		switch (formatter) {
+		case "googleJavaFormat":
+			step = GoogleJavaFormatStep.create(LocalJarsProvisioner.GOOGLE_JAVA_FORMAT_VERSION, provisioner);
+			input = Corpus.java(lines);
+			file = dir.resolve("Generated.java").toFile();
+			break;
+		case "ktlint":
+			step = KtLintStep.create(LocalJarsProvisioner.KTLINT_VERSION, provisioner);
+			input = Corpus.kotlin(lines);
+			file = dir.resolve("Generated.kt").toFile();
+			break;
+		case "scalafmt":
+			step = ScalaFmtStep.create(LocalJarsProvisioner.SCALAFMT_VERSION, provisioner, null);
+			input = Corpus.scala(lines);
+			file = dir.resolve("Generated.scala").toFile();
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown formatter " + formatter);
+		}
+		Files.write(file.toPath(), input.getBytes(UTF_8));
+		// loads the formatter's classes outside of the measurement
+		step.format(input, file);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file.toPath());
+		Files.deleteIfExists(dir);
+	}
+
+	@Benchmark
+	public String format() throws Exception {
+		return step.format(input, file);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.diffplug.spotless.Provisioner;
+
+/**
+ * A {@link Provisioner} for the jars which `:benchmark:writeFormatterJars` resolved ahead of time, so
+ * that the benchmarks work offline.  To benchmark another formatter (or version), add its maven
+ * coordinate to `benchmarkedFormatters` in `benchmark/build.gradle`.
+ */
+final class LocalJarsProvisioner implements Provisioner {
+	static final String PROPERTY = "spotless.benchmark.formatterJars";
+
+	static final String GOOGLE_JAVA_FORMAT_VERSION = "1.7";
+	static final String KTLINT_VERSION = "0.35.0";
+	static final String SCALAFMT_VERSION = "2.0.1";
+
+	private final File jarsFile;
+	private final Properties jars = new Properties();
+
+	LocalJarsProvisioner() {
+		String path = System.getProperty(PROPERTY);
+		if (path == null) {
+			throw new IllegalStateException("-D" + PROPERTY + " is not set, run the benchmarks with `./gradlew :benchmark:jmh`");
+		}
+		jarsFile = new File(path);
+		try (InputStream input = Files.newInputStream(jarsFile.toPath())) {
+			jars.load(input);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to read " + jarsFile, e);
+		}
+	}
+
+	@Override
+	public Set<File> provisionWithTransitives(boolean withTransitives, Collection<String> mavenCoordinates) {
+		if (!withTransitives) {
+			throw new IllegalArgumentException("Only transitive resolution is supported, was asked for " + mavenCoordinates);
+		}
+		Set<File> result = new LinkedHashSet<>();
+		for (String coordinate : mavenCoordinates) {
+			String classpath = jars.getProperty(coordinate);
+			if (classpath == null) {
+				throw new IllegalArgumentException(coordinate + " is not in " + jarsFile + ", add it to benchmarkedFormatters in benchmark/build.gradle");
+			}
+			for (String jar : classpath.split(Pattern.quote(File.pathSeparator))) {
+				result.add(new File(jar));
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.benchmark;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.diffplug.spotless.Formatter;
+import com.diffplug.spotless.LineEnding;
+import com.diffplug.spotless.PaddedCell;
+
+/** The whole pipeline of generic steps, through {@link Formatter#compute} and {@link PaddedCell#calculateDirtyState}. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PipelineBenchmark {
+	@Param({"100", "1000", "10000"})
+	int lines;
+
+	Path dir;
+	Formatter formatter;
+	String dirtyUnix;
+	File dirtyFile;
+	File cleanFile;
+	File windowsFile;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("spotless-benchmark");
+		formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(UTF_8)
+				.rootDir(dir)
+				.steps(Steps.javaFormat())
+				.build();
+		dirtyUnix = Corpus.java(lines);
+		dirtyFile = write("Dirty.java", dirtyUnix);
+		cleanFile = write("Clean.java", formatter.compute(dirtyUnix, dirtyFile));
+		// clean content, but the line endings are wrong
+		windowsFile = write("Windows.java", Corpus.windows(formatter.compute(dirtyUnix, dirtyFile)));
+	}
+
+	private File write(String name, String content) throws IOException {
+		Path file = dir.resolve(name);
+		Files.write(file, content.getBytes(UTF_8));
+		return file.toFile();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		formatter.close();
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public String compute() {
+		return formatter.compute(dirtyUnix, dirtyFile);
+	}
+
+	@Benchmark
+	public PaddedCell.DirtyState calculateDirtyStateOfCleanFile() throws IOException {
+		return PaddedCell.calculateDirtyState(formatter, cleanFile);
+	}
+
+	@Benchmark
+	public PaddedCell.DirtyState calculateDirtyStateOfDirtyFile() throws IOException {
+		return PaddedCell.calculateDirtyState(formatter, dirtyFile);
+	}
+
+	@Benchmark
+	public boolean isCleanWithWrongLineEndings() throws IOException {
+		return formatter.isClean(windowsFile);
+	}
+}
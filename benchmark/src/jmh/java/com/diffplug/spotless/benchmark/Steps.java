@@ -0,0 +1,64 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.diffplug.spotless.FormatterStep;
+import com.diffplug.spotless.generic.EndWithNewlineStep;
+import com.diffplug.spotless.generic.IndentStep;
+import com.diffplug.spotless.generic.LicenseHeaderStep;
+import com.diffplug.spotless.generic.TrimTrailingWhitespaceStep;
+import com.diffplug.spotless.java.ImportOrderStep;
+
+/** The generic steps which are benchmarked, configured the way a typical java format would be. */
+final class Steps {
+	private Steps() {}
+
+	static final String INDENT = "indentWithSpaces";
+	static final String TRIM_TRAILING_WHITESPACE = "trimTrailingWhitespace";
+	static final String LICENSE_HEADER = "licenseHeader";
+	static final String IMPORT_ORDER = "importOrder";
+	static final String END_WITH_NEWLINE = "endWithNewline";
+
+	static FormatterStep create(String name) {
+		switch (name) {
+		case INDENT:
+			return IndentStep.Type.SPACE.create();
+		case TRIM_TRAILING_WHITESPACE:
+			return TrimTrailingWhitespaceStep.create();
+		case LICENSE_HEADER:
+			return LicenseHeaderStep.headerDelimiter(Corpus.LICENSE_HEADER, "package ").build();
+		case IMPORT_ORDER:
+			return ImportOrderStep.forJava().createFrom("java", "javax", "org", "com", "com.diffplug");
+		case END_WITH_NEWLINE:
+			return EndWithNewlineStep.create();
+		default:
+			throw new IllegalArgumentException("Unknown step " + name);
+		}
+	}
+
+	/** All of the generic steps, in the order that a java format applies them. */
+	static List<FormatterStep> javaFormat() {
+		return Arrays.asList(
+				create(LICENSE_HEADER),
+				create(IMPORT_ORDER),
+				create(TRIM_TRAILING_WHITESPACE),
+				create(INDENT),
+				create(END_WITH_NEWLINE));
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,12 +20,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
 
 import com.diffplug.common.base.Errors;
 import com.diffplug.spotless.FileSignature;
@@ -34,8 +42,11 @@ import com.diffplug.spotless.FormatterProperties;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.JarState;
 import com.diffplug.spotless.Provisioner;
+import com.diffplug.spotless.SpotlessCache;
 import com.diffplug.spotless.ThrowingEx;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
 /**
  * Generic Eclipse based formatter step {@link State} builder.
  */
@@ -140,6 +151,7 @@ public class EclipseBasedStepBuilder {
 	 * State of Eclipse configuration items, providing functionality to derived information
 	 * based on the state.
 	 */
+	@SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
 	public static class State implements Serializable {
 		// Not used, only the serialization output is required to determine whether the object has changed
 		private static final long serialVersionUID = 1L;
@@ -150,6 +162,11 @@ public class EclipseBasedStepBuilder {
 		private final String formatterStepExt;
 		private final FileSignature settingsFiles;
 
+		/** Parsed once, and then copied for each formatter instance. */
+		private transient volatile @Nullable Properties preferences;
+		/** Pools of formatter instances, keyed by implementation class name. */
+		private transient volatile @Nullable Map<String, FormatterPool> pools;
+
 		/** State constructor expects that all passed items are not modified afterwards */
 		protected State(String formatterStepExt, Provisioner jarProvisioner, List<String> dependencies, Iterable<File> settingsFiles) throws IOException {
 			this.jarState = JarState.withoutTransitives(dependencies, jarProvisioner);
@@ -159,9 +176,44 @@ public class EclipseBasedStepBuilder {
 
 		/** Get formatter preferences */
 		public Properties getPreferences() {
-			//Keep the IllegalArgumentException since it contains detailed information
-			FormatterProperties preferences = FormatterProperties.from(settingsFiles.files());
-			return preferences.getProperties();
+			Properties parsed = preferences;
+			if (parsed == null) {
+				//Keep the IllegalArgumentException since it contains detailed information
+				parsed = FormatterProperties.from(settingsFiles.files()).getProperties();
+				preferences = parsed;
+			}
+			// a copy, since the formatter implementations may modify it
+			Properties copy = new Properties();
+			copy.putAll(parsed);
+			return copy;
+		}
+
+		/**
+		 * Returns the pool of instances of the given formatter implementation, which are created from
+		 * {@link #getPreferences()} as they are needed, so that each thread which is formatting at the
+		 * same time uses an instance of its own.
+		 *
+		 * If `isolateClassLoaders` is false, then all instances are created in the same class loader,
+		 * which is fine for implementations which keep all of their state in the instance (e.g. a
+		 * `CodeFormatter`).  If it is true, then every instance beyond the first gets a class loader of
+		 * its own, which is required for implementations which keep state in their Eclipse plugins
+		 * (e.g. preferences or log listeners).  Either way, the Eclipse framework is only set up once
+		 * per class loader.  The first class loader is cached by {@link JarState} (and leased from the
+		 * cache by the pool), the others belong to the pool, and they are all released when the last
+		 * function returned by the pool is closed.
+		 */
+		public FormatterPool getPool(String className, boolean isolateClassLoaders) {
+			Map<String, FormatterPool> poolsByClass = pools;
+			if (poolsByClass == null) {
+				synchronized (this) {
+					poolsByClass = pools;
+					if (poolsByClass == null) {
+						poolsByClass = new ConcurrentHashMap<>();
+						pools = poolsByClass;
+					}
+				}
+			}
+			return poolsByClass.computeIfAbsent(className, name -> new FormatterPool(this, name, isolateClassLoaders));
 		}
 
 		/** Returns first coordinate from sorted set that starts with a given prefix.*/
@@ -187,4 +239,189 @@ public class EclipseBasedStepBuilder {
 			}
 		}
 	}
+
+	/**
+	 * Instances of an Eclipse formatter implementation, each of which is used by only one thread at a time.
+	 * Instances are created lazily, so a pool which is only used by one thread holds only one instance.
+	 *
+	 * Each function returned by the pool holds a lease on it.  Once the last one is closed, the pool
+	 * is removed from its state, and the class loaders it created for isolated instances are closed.
+	 */
+	public static final class FormatterPool {
+		private static final String FORMATTER_METHOD = "format";
+
+		private final State state;
+		private final String className;
+		private final boolean isolateClassLoaders;
+		/** Guarded by this. */
+		private final List<Instance> idle = new ArrayList<>();
+		/** Guarded by this. */
+		private int created;
+		/** Guarded by this. */
+		private int leases;
+		/** Guarded by this. */
+		private boolean closed;
+		/** Keeps the cached class loader open for as long as the pool may use it. */
+		private final SpotlessCache.Lease cachedClassLoader = new SpotlessCache.Lease();
+
+		private FormatterPool(State state, String className, boolean isolateClassLoaders) {
+			this.state = state;
+			this.className = className;
+			this.isolateClassLoaders = isolateClassLoaders;
+		}
+
+		/** Calls the `format` method, whose parameters are all strings, of an instance which no other thread is using. */
+		public String format(String... args) throws Exception {
+			Instance instance = borrow();
+			try {
+				return (String) instance.format(args);
+			} catch (InvocationTargetException exceptionWrapper) {
+				Throwable throwable = exceptionWrapper.getTargetException();
+				Exception exception = (throwable instanceof Exception) ? (Exception) throwable : null;
+				throw (null == exception) ? exceptionWrapper : exception;
+			} finally {
+				release(instance);
+			}
+		}
+
+		/** Returns a function which formats with this pool, and releases its lease on the pool when closed. */
+		public FormatterFunc.Closeable asFormatterFunc() {
+			FormatterPool pool = leasedPool();
+			return FormatterFunc.Closeable.of(pool.new Lease(), (lease, unix) -> pool.format(unix));
+		}
+
+		/**
+		 * Returns a function which formats with this pool, passing the absolute path of the file as the second argument,
+		 * and releases its lease on the pool when closed.
+		 */
+		public FormatterFunc.Closeable asFormatterFuncWithFile() {
+			FormatterPool pool = leasedPool();
+			return FormatterFunc.Closeable.of(pool.new Lease(), (lease, unix, file) -> pool.format(unix, file.getAbsolutePath()));
+		}
+
+		/** Takes a lease on this pool, or on the pool which replaced it if it has been closed in the meantime. */
+		private FormatterPool leasedPool() {
+			synchronized (this) {
+				if (!closed) {
+					++leases;
+					return this;
+				}
+			}
+			// already removed from the state, so this gets a new pool
+			return state.getPool(className, isolateClassLoaders).leasedPool();
+		}
+
+		/** Closes the pool once the last lease has been released. */
+		private void releaseLease() {
+			List<Instance> toClose;
+			synchronized (this) {
+				if (--leases > 0) {
+					return;
+				}
+				closed = true;
+				// removed while holding the lock, so that leasedPool() never sees a closed pool in the state
+				Map<String, FormatterPool> poolsByClass = state.pools;
+				if (poolsByClass != null) {
+					poolsByClass.remove(className, this);
+				}
+				toClose = new ArrayList<>(idle);
+				idle.clear();
+			}
+			for (Instance instance : toClose) {
+				instance.close();
+			}
+			cachedClassLoader.close();
+		}
+
+		/** A lease on the pool, which can be released only once. */
+		private final class Lease implements AutoCloseable {
+			private boolean released;
+
+			@Override
+			public synchronized void close() {
+				if (!released) {
+					released = true;
+					releaseLease();
+				}
+			}
+		}
+
+		private Instance borrow() throws Exception {
+			int instance;
+			synchronized (this) {
+				if (!idle.isEmpty()) {
+					return idle.remove(idle.size() - 1);
+				}
+				instance = created++;
+			}
+			// outside of the lock, because setting up the Eclipse framework can take a while
+			URLClassLoader ownClassLoader = null;
+			try {
+				ClassLoader classLoader;
+				if (instance == 0 || !isolateClassLoaders) {
+					classLoader = cachedClassLoader.track(() -> state.jarState.getClassLoader(state));
+				} else {
+					// not cached, so that it stays open for as long as the pool uses it
+					ownClassLoader = state.jarState.createClassLoader();
+					classLoader = ownClassLoader;
+				}
+				Class<?> clazz = classLoader.loadClass(className);
+				return new Instance(clazz.getConstructor(Properties.class).newInstance(state.getPreferences()), ownClassLoader);
+			} catch (Exception | Error e) {
+				synchronized (this) {
+					--created;
+				}
+				closeQuietly(ownClassLoader);
+				throw e;
+			}
+		}
+
+		private void release(Instance instance) {
+			synchronized (this) {
+				if (!closed) {
+					// LIFO, so that a single thread keeps using the same instance
+					idle.add(instance);
+					return;
+				}
+			}
+			instance.close();
+		}
+
+		private static void closeQuietly(@Nullable URLClassLoader classLoader) {
+			if (classLoader != null) {
+				try {
+					classLoader.close();
+				} catch (IOException e) {
+					// nothing is loaded from it anymore, so there is nothing to be done
+				}
+			}
+		}
+
+		private static final class Instance {
+			private final Object formatter;
+			private final Method[] methodsByArity = new Method[3];
+			/** The class loader which was created for this instance alone, if any. */
+			private final @Nullable URLClassLoader ownClassLoader;
+
+			Instance(Object formatter, @Nullable URLClassLoader ownClassLoader) {
+				this.formatter = formatter;
+				this.ownClassLoader = ownClassLoader;
+			}
+
+			void close() {
+				closeQuietly(ownClassLoader);
+			}
+
+			Object format(String[] args) throws Exception {
+				Method method = methodsByArity[args.length];
+				if (method == null) {
+					Class<?>[] parameterTypes = new Class<?>[args.length];
+					Arrays.fill(parameterTypes, String.class);
+					method = formatter.getClass().getMethod(FORMATTER_METHOD, parameterTypes);
+					methodsByArity[args.length] = method;
+				}
+				return method.invoke(formatter, (Object[]) args);
+			}
+		}
+	}
 }
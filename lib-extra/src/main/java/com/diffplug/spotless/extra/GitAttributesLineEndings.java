@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,17 +17,25 @@ package com.diffplug.spotless.extra;
 
 import static com.diffplug.spotless.extra.LibExtraPreconditions.requireElementsNonNull;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
@@ -44,9 +52,6 @@ import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.SystemReader;
 
-import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
-import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharSequenceNodeFactory;
-
 import com.diffplug.common.base.Errors;
 import com.diffplug.spotless.FileSignature;
 import com.diffplug.spotless.LazyForwardingEquality;
@@ -65,19 +70,22 @@ public final class GitAttributesLineEndings {
 	private GitAttributesLineEndings() {}
 
 	/**
-	 * Creates a line-endings policy whose serialized state is relativized against projectDir,
-	 * at the cost of eagerly evaluating the line-ending state of every target file when the
-	 * policy is checked for equality with another policy.
+	 * Creates a line-endings policy whose serialized state is relativized against projectDir.
+	 * The state is a fingerprint of the `core.eol` config and of the content of every
+	 * `.gitattributes` file which applies to the target files, so checking the policy for
+	 * equality doesn't require evaluating the line ending of every target file.
 	 */
 	public static LineEnding.Policy create(File projectDir, Supplier<Iterable<File>> toFormat) {
 		return new RelocatablePolicy(projectDir, toFormat);
 	}
 
-	static class RelocatablePolicy extends LazyForwardingEquality<CachedEndings> implements LineEnding.Policy {
+	static class RelocatablePolicy extends LazyForwardingEquality<RulesFingerprint> implements LineEnding.Policy {
 		private static final long serialVersionUID = 5868522122123693015L;
 
 		final transient File projectDir;
 		final transient Supplier<Iterable<File>> toFormat;
+		/** Set by calculateState, and then used to evaluate each file lazily. */
+		private transient volatile @Nullable Runtime runtime;
 
 		RelocatablePolicy(File projectDir, Supplier<Iterable<File>> toFormat) {
 			this.projectDir = Objects.requireNonNull(projectDir, "projectDir");
@@ -85,48 +93,65 @@ public final class GitAttributesLineEndings {
 		}
 
 		@Override
-		protected CachedEndings calculateState() throws Exception {
-			Runtime runtime = new RuntimeInit(projectDir, toFormat.get()).atRuntime();
-			return new CachedEndings(projectDir, runtime, toFormat.get());
+		protected RulesFingerprint calculateState() throws Exception {
+			Iterable<File> files = toFormat.get();
+			RuntimeInit init = new RuntimeInit(projectDir, files);
+			Runtime runtime = init.atRuntime();
+			RulesFingerprint fingerprint = new RulesFingerprint(projectDir, init, runtime, files);
+			this.runtime = runtime;
+			return fingerprint;
 		}
 
 		@Override
 		public String getEndingFor(File file) {
-			return state().endingFor(file);
+			state();
+			return Objects.requireNonNull(runtime, "runtime").getEndingFor(file);
 		}
 	}
 
-	@SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
-	static class CachedEndings implements Serializable {
-		private static final long serialVersionUID = -2534772773057900619L;
+	/** Everything which can change the line ending of a target file, relative to the project dir. */
+	static class RulesFingerprint implements Serializable {
+		private static final long serialVersionUID = 2938402315316405376L;
 
-		/** this is transient, to simulate PathSensitive.RELATIVE */
-		transient final String rootDir;
-		/** the line ending used for most files */
+		/** the line ending used for files which have no eol attribute */
 		final String defaultEnding;
-		/** any exceptions to that default, in terms of relative path from rootDir */
-		final ConcurrentRadixTree<String> hasNonDefaultEnding = new ConcurrentRadixTree<>(new DefaultCharSequenceNodeFactory());
+		/** content hash of each rule file, keyed by its path relative to the project dir */
+		final TreeMap<String, String> ruleFiles = new TreeMap<>();
 
-		CachedEndings(File projectDir, Runtime runtime, Iterable<File> toFormat) {
-			String rootPath = FileSignature.pathNativeToUnix(projectDir.getAbsolutePath());
-			rootDir = rootPath.equals("/") ? rootPath : rootPath + "/";
+		RulesFingerprint(File projectDir, RuntimeInit init, Runtime runtime, Iterable<File> toFormat) {
 			defaultEnding = runtime.defaultEnding;
+			Path root = projectDir.getAbsoluteFile().toPath();
+			// the global file is matched against absolute paths, so it can't be relocated anyway
+			add("global attributes", RuleFile.load(init.globalAttributesFile));
+			if (init.repoAttributesFile != null) {
+				add(relativePath(root, init.repoAttributesFile), RuleFile.load(init.repoAttributesFile));
+			}
+			// each folder only needs to be visited once, no matter how many files it has
+			Set<File> visited = new HashSet<>();
 			for (File file : toFormat) {
-				String ending = runtime.getEndingFor(file);
-				if (!ending.equals(defaultEnding)) {
-					String absPath = FileSignature.pathNativeToUnix(file.getAbsolutePath());
-					String subPath = FileSignature.subpath(rootDir, absPath);
-					hasNonDefaultEnding.put(subPath, ending);
+				File folder = file.getAbsoluteFile().getParentFile();
+				while (folder != null && visited.add(folder)) {
+					RuleFile ruleFile = runtime.cache.ruleFileFor(folder);
+					add(relativePath(root, new File(folder, Constants.DOT_GIT_ATTRIBUTES)), ruleFile);
+					folder = folder.getParentFile();
 				}
 			}
 		}
 
-		/** Returns the line ending appropriate for the given file. */
-		public String endingFor(File file) {
-			String absPath = FileSignature.pathNativeToUnix(file.getAbsolutePath());
-			String subpath = FileSignature.subpath(rootDir, absPath);
-			String ending = hasNonDefaultEnding.getValueForExactKey(subpath);
-			return ending == null ? defaultEnding : ending;
+		private void add(String path, RuleFile ruleFile) {
+			if (ruleFile.hash != null) {
+				ruleFiles.put(path, ruleFile.hash);
+			}
+		}
+
+		private static String relativePath(Path root, File file) {
+			Path path = file.getAbsoluteFile().toPath();
+			try {
+				return FileSignature.pathNativeToUnix(root.relativize(path).toString());
+			} catch (IllegalArgumentException e) {
+				// e.g. a different drive on windows
+				return FileSignature.pathNativeToUnix(path.toString());
+			}
 		}
 	}
 
@@ -195,7 +220,7 @@ public final class GitAttributesLineEndings {
 		}
 
 		private Runtime atRuntime() {
-			return new Runtime(parseRules(repoAttributesFile), workTree, repoConfig, parseRules(globalAttributesFile));
+			return new Runtime(RuleFile.load(repoAttributesFile).rules, workTree, repoConfig, RuleFile.load(globalAttributesFile).rules);
 		}
 	}
 
@@ -287,9 +312,9 @@ public final class GitAttributesLineEndings {
 		}
 	}
 
-	/** Parses and caches .gitattributes files. */
+	/** Finds the parsed .gitattributes files for each folder, and remembers them for the lifetime of this cache. */
 	static class AttributesCache {
-		final Map<File, List<AttributesRule>> rulesAtPath = new HashMap<>();
+		final Map<File, RuleFile> rulesAtPath = new ConcurrentHashMap<>();
 
 		/** Returns a value if there is one, or unspecified if there isn't. */
 		public @Nullable String valueFor(File file, String key) {
@@ -301,7 +326,7 @@ public final class GitAttributesLineEndings {
 			while (parent != null) {
 				String path = pathBuilder.toString();
 
-				String value = findAttributeInRules(path, isDirectory, key, getRulesForFolder(parent));
+				String value = findAttributeInRules(path, isDirectory, key, ruleFileFor(parent).rules);
 				if (value != null) {
 					return value;
 				}
@@ -313,25 +338,77 @@ public final class GitAttributesLineEndings {
 		}
 
 		/** Returns the gitattributes rules for the given folder. */
-		private List<AttributesRule> getRulesForFolder(File folder) {
-			return rulesAtPath.computeIfAbsent(folder, f -> parseRules(new File(f, Constants.DOT_GIT_ATTRIBUTES)));
+		RuleFile ruleFileFor(File folder) {
+			return rulesAtPath.computeIfAbsent(folder, f -> RuleFile.load(new File(f, Constants.DOT_GIT_ATTRIBUTES)));
 		}
 	}
 
-	/** Parses a list of rules from the given file, returning an empty list if the file doesn't exist. */
-	private static List<AttributesRule> parseRules(@Nullable File file) {
-		if (file != null && file.exists() && file.isFile()) {
-			try (InputStream stream = new FileInputStream(file)) {
-				AttributesNode parsed = new AttributesNode();
-				parsed.parse(stream);
-				return parsed.getRules();
+	/**
+	 * The parsed rules of a single attributes file, along with a hash of its content.
+	 *
+	 * Parsed files are shared by every policy in this JVM, so that a `.gitattributes` file at the
+	 * root of a repository is parsed once, rather than once per format per project.  An entry is
+	 * parsed again whenever the file's size or last-modified time changes.
+	 */
+	static final class RuleFile {
+		private static final Map<File, RuleFile> PARSED = new ConcurrentHashMap<>();
+		private static final RuleFile MISSING = new RuleFile(0, 0, Collections.emptyList(), null);
+
+		final long lastModified;
+		final long size;
+		final List<AttributesRule> rules;
+		/** Null if the file doesn't exist. */
+		final @Nullable String hash;
+
+		private RuleFile(long lastModified, long size, List<AttributesRule> rules, @Nullable String hash) {
+			this.lastModified = lastModified;
+			this.size = size;
+			this.rules = rules;
+			this.hash = hash;
+		}
+
+		/** Returns the rules in the given file, which are empty if the file doesn't exist. */
+		static RuleFile load(@Nullable File file) {
+			if (file == null) {
+				return MISSING;
+			}
+			File key = file.getAbsoluteFile();
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(key.toPath(), BasicFileAttributes.class);
 			} catch (IOException e) {
+				// usually NoSuchFileException
+				PARSED.remove(key);
+				return MISSING;
+			}
+			if (!attributes.isRegularFile()) {
+				PARSED.remove(key);
+				return MISSING;
+			}
+			long lastModified = attributes.lastModifiedTime().toMillis();
+			RuleFile cached = PARSED.get(key);
+			if (cached != null && cached.lastModified == lastModified && cached.size == attributes.size()) {
+				return cached;
+			}
+			RuleFile parsed = parse(key, lastModified);
+			PARSED.put(key, parsed);
+			return parsed;
+		}
+
+		private static RuleFile parse(File file, long lastModified) {
+			try {
+				byte[] content = Files.readAllBytes(file.toPath());
+				AttributesNode parsed = new AttributesNode();
+				parsed.parse(new ByteArrayInputStream(content));
+				String hash = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content));
+				return new RuleFile(lastModified, content.length, parsed.getRules(), hash);
+			} catch (IOException | NoSuchAlgorithmException e) {
 				// no need to crash the whole plugin
 				System.err.println("Problem parsing " + file.getAbsolutePath());
 				e.printStackTrace();
+				return MISSING;
 			}
 		}
-		return Collections.emptyList();
 	}
 
 	/** Parses an attribute value from a list of rules, returning null if there is no match for the given key. */
@@ -19,10 +19,17 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 
@@ -30,6 +37,7 @@ import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.dircache.DirCacheIterator;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -43,19 +51,24 @@ import org.eclipse.jgit.treewalk.WorkingTreeIterator;
 import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.FS;
 
 import com.diffplug.common.base.Errors;
-import com.diffplug.common.collect.HashBasedTable;
-import com.diffplug.common.collect.Table;
 import com.diffplug.spotless.FileSignature;
+import com.diffplug.spotless.ThrowingEx;
 
 /**
  * How to use:
  * - For best performance, you should have one instance of GitRatchet, shared by all projects.
  * - Use {@link #rootTreeShaOf(Object, String)} to turn `origin/master` into the SHA of the tree object at that reference
  * - Use {@link #isClean(Object, ObjectId, File)} to see if the given file is "git clean" relative to that tree
+ * - If you are going to check many files, use {@link #dirtyPathsOf(Object, ObjectId)} to find all of the dirty files in the project at once
  * - If you have up-to-date checking and want the best possible performance, use {@link #subtreeShaOf(Object, ObjectId)} to optimize up-to-date checks on a per-project basis.
+ *
+ * All of the methods are safe to call from many threads at once, e.g. from parallel tasks or workers.
+ * The caches are concurrent maps, each walk borrows an `ObjectReader` from a pool of idle ones, and
+ * the git index is read once per repository and shared until it changes on disk.
  */
 public abstract class GitRatchet<Project> implements AutoCloseable {
 
@@ -73,11 +86,10 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 	 */
 	public boolean isClean(Project project, ObjectId treeSha, String relativePathUnix) throws IOException {
 		Repository repo = repositoryFor(project);
+		DirCache dirCache = dirCacheFor(repo);
 
-		// TODO: should be cached-per-repo if it is thread-safe, or per-repo-per-thread if it is not
-		DirCache dirCache = repo.readDirCache();
-
-		try (TreeWalk treeWalk = new TreeWalk(repo)) {
+		ObjectReader reader = borrowReader(repo);
+		try (TreeWalk treeWalk = new TreeWalk(repo, reader)) {
 			treeWalk.setRecursive(true);
 			treeWalk.addTree(treeSha);
 			treeWalk.addTree(new DirCacheIterator(dirCache));
@@ -90,37 +102,129 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 				// the file we care about is git clean
 				return true;
 			} else {
-				AbstractTreeIterator treeIterator = treeWalk.getTree(TREE, AbstractTreeIterator.class);
-				DirCacheIterator dirCacheIterator = treeWalk.getTree(INDEX, DirCacheIterator.class);
-				WorkingTreeIterator workingTreeIterator = treeWalk.getTree(WORKDIR, WorkingTreeIterator.class);
+				return isClean(treeWalk, treeSha);
+			}
+		} finally {
+			returnReader(repo, reader);
+		}
+	}
 
-				boolean hasTree = treeIterator != null;
-				boolean hasDirCache = dirCacheIterator != null;
+	/**
+	 * Returns the files of the given project which are dirty relative to the given tree.  They are found
+	 * with a single walk over the project, rather than one walk per file like {@link #isClean(Object, ObjectId, String)},
+	 * so checking each file is just a lookup.  The result is cached per project, so it should only be used
+	 * while the working tree isn't changing, e.g. for the duration of a build.
+	 */
+	public DirtyPaths dirtyPathsOf(Project project, ObjectId treeSha) throws IOException {
+		DirtyPaths dirtyPaths = dirtyPathsCache.get(project);
+		if (dirtyPaths == null || !dirtyPaths.treeSha.equals(treeSha)) {
+			// only blocks other threads which want the same project
+			dirtyPaths = rethrowIO(() -> dirtyPathsCache.compute(project, (unused, existing) -> {
+				if (existing != null && existing.treeSha.equals(treeSha)) {
+					return existing;
+				}
+				return ThrowingEx.get(() -> computeDirtyPaths(project, treeSha));
+			}));
+		}
+		return dirtyPaths;
+	}
+
+	private DirtyPaths computeDirtyPaths(Project project, ObjectId treeSha) throws IOException {
+		Repository repo = repositoryFor(project);
+		File directory = getDir(project);
+		String subpath = repo.getWorkTree().equals(directory) ? "" : FileSignature.pathNativeToUnix(repo.getWorkTree().toPath().relativize(directory.toPath()).toString());
+
+		Set<String> dirty = new HashSet<>();
+		DirCache dirCache = dirCacheFor(repo);
+		ObjectReader reader = borrowReader(repo);
+		try (TreeWalk treeWalk = new TreeWalk(repo, reader)) {
+			treeWalk.setRecursive(true);
+			treeWalk.addTree(treeSha);
+			treeWalk.addTree(new DirCacheIterator(dirCache));
+			treeWalk.addTree(new FileTreeIterator(repo));
+			TreeFilter filter = new IndexDiffFilter(INDEX, WORKDIR);
+			if (!subpath.isEmpty()) {
+				filter = AndTreeFilter.create(PathFilter.create(subpath), filter);
+			}
+			treeWalk.setFilter(filter);
+			while (treeWalk.next()) {
+				if (!isClean(treeWalk, treeSha)) {
+					dirty.add(treeWalk.getPathString());
+				}
+			}
+		} finally {
+			returnReader(repo, reader);
+		}
+		return new DirtyPaths(project, treeSha, repo.getWorkTree().toPath(), subpath.isEmpty() ? "" : subpath + "/", dirty);
+	}
+
+	/** The result of {@link #dirtyPathsOf(Object, ObjectId)}. */
+	public final class DirtyPaths {
+		private final Project project;
+		private final ObjectId treeSha;
+		private final Path workTree;
+		private final String subpathPrefix;
+		private final Set<String> dirty;
+
+		private DirtyPaths(Project project, ObjectId treeSha, Path workTree, String subpathPrefix, Set<String> dirty) {
+			this.project = project;
+			this.treeSha = treeSha;
+			this.workTree = workTree;
+			this.subpathPrefix = subpathPrefix;
+			this.dirty = Collections.unmodifiableSet(dirty);
+		}
+
+		/** Returns true if the given file is clean relative to the tree, without walking the tree if it's in the project. */
+		public boolean isClean(File file) throws IOException {
+			String relativePath = FileSignature.pathNativeToUnix(workTree.relativize(file.toPath()).toString());
+			if (relativePath.startsWith(subpathPrefix)) {
+				return !dirty.contains(relativePath);
+			} else {
+				// the target of a project can include files outside of it
+				return GitRatchet.this.isClean(project, treeSha, relativePath);
+			}
+		}
 
-				if (!hasTree) {
-					// it's not in the tree, so it was added
+		/** The paths of the dirty files, relative to the root of the repository. */
+		public Set<String> paths() {
+			return dirty;
+		}
+	}
+
+	/** Returns true if the current entry of a walk over {@link #TREE}, {@link #INDEX} and {@link #WORKDIR} is clean. */
+	private static boolean isClean(TreeWalk treeWalk, ObjectId treeSha) throws IOException {
+		AbstractTreeIterator treeIterator = treeWalk.getTree(TREE, AbstractTreeIterator.class);
+		DirCacheIterator dirCacheIterator = treeWalk.getTree(INDEX, DirCacheIterator.class);
+		WorkingTreeIterator workingTreeIterator = treeWalk.getTree(WORKDIR, WorkingTreeIterator.class);
+
+		boolean hasTree = treeIterator != null;
+		boolean hasDirCache = dirCacheIterator != null;
+
+		if (workingTreeIterator == null) {
+			// it's not in the working tree, so there is nothing to format
+			return true;
+		} else if (!hasTree) {
+			// it's not in the tree, so it was added
+			return false;
+		} else {
+			if (hasDirCache) {
+				boolean treeEqualsIndex = treeIterator.idEqual(dirCacheIterator) && treeIterator.getEntryRawMode() == dirCacheIterator.getEntryRawMode();
+				boolean indexEqualsWC = !workingTreeIterator.isModified(dirCacheIterator.getDirCacheEntry(), true, treeWalk.getObjectReader());
+				if (treeEqualsIndex != indexEqualsWC) {
+					// if one is equal and the other isn't, then it has definitely changed
 					return false;
+				} else if (treeEqualsIndex) {
+					// this means they are all equal to each other, which should never happen
+					// the IndexDiffFilter should keep those out of the TreeWalk entirely
+					throw new IllegalStateException("Index status for " + treeWalk.getPathString() + " against treeSha " + treeSha + " is invalid.");
 				} else {
-					if (hasDirCache) {
-						boolean treeEqualsIndex = treeIterator.idEqual(dirCacheIterator) && treeIterator.getEntryRawMode() == dirCacheIterator.getEntryRawMode();
-						boolean indexEqualsWC = !workingTreeIterator.isModified(dirCacheIterator.getDirCacheEntry(), true, treeWalk.getObjectReader());
-						if (treeEqualsIndex != indexEqualsWC) {
-							// if one is equal and the other isn't, then it has definitely changed
-							return false;
-						} else if (treeEqualsIndex) {
-							// this means they are all equal to each other, which should never happen
-							// the IndexDiffFilter should keep those out of the TreeWalk entirely
-							throw new IllegalStateException("Index status for " + relativePathUnix + " against treeSha " + treeSha + " is invalid.");
-						} else {
-							// they are all unique
-							// we have to check manually
-							return worktreeIsCleanCheckout(treeWalk);
-						}
-					} else {
-						// no dirCache, so we will compare the tree to the workdir manually
-						return worktreeIsCleanCheckout(treeWalk);
-					}
+					// they are all unique
+					// we have to check manually
+					return worktreeIsCleanCheckout(treeWalk);
 				}
+			} else {
+				// no dirCache, so we will compare the tree to the workdir manually
+				return worktreeIsCleanCheckout(treeWalk);
 			}
 		}
 	}
@@ -134,18 +238,71 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 	private final static int INDEX = 1;
 	private final static int WORKDIR = 2;
 
-	Map<Project, Repository> gitRoots = new HashMap<>();
-	Table<Repository, String, ObjectId> rootTreeShaCache = HashBasedTable.create();
-	Map<Project, ObjectId> subtreeShaCache = new HashMap<>();
+	Map<Project, Repository> gitRoots = new ConcurrentHashMap<>();
+	Map<Repository, Map<String, ObjectId>> rootTreeShaCache = new ConcurrentHashMap<>();
+	Map<Project, ObjectId> subtreeShaCache = new ConcurrentHashMap<>();
+	Map<Project, DirtyPaths> dirtyPathsCache = new ConcurrentHashMap<>();
+	Map<Repository, DirCache> dirCacheCache = new ConcurrentHashMap<>();
+	/** An ObjectReader is not thread-safe, so each one is borrowed by one walk at a time, and the idle ones are closed by {@link #close()}. */
+	private final Map<Repository, Queue<ObjectReader>> idleReaders = new ConcurrentHashMap<>();
+	private volatile boolean closed;
+
+	private ObjectReader borrowReader(Repository repo) {
+		ObjectReader reader = idleReaders.computeIfAbsent(repo, unused -> new ConcurrentLinkedQueue<>()).poll();
+		return reader != null ? reader : repo.newObjectReader();
+	}
+
+	private void returnReader(Repository repo, ObjectReader reader) {
+		Queue<ObjectReader> idle = idleReaders.computeIfAbsent(repo, unused -> new ConcurrentLinkedQueue<>());
+		idle.add(reader);
+		if (closed && idle.remove(reader)) {
+			// closed while (or before) we were returning it
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reading the git index is expensive, so it is read once per repository and shared by all threads,
+	 * until the index file changes.  A DirCache is safe to share for reading once its cache tree has
+	 * been built, because that is the only state which a DirCacheIterator initializes lazily.
+	 */
+	private DirCache dirCacheFor(Repository repo) throws IOException {
+		DirCache dirCache = dirCacheCache.get(repo);
+		if (dirCache == null || dirCache.isOutdated()) {
+			dirCache = rethrowIO(() -> dirCacheCache.compute(repo, (unused, existing) -> ThrowingEx.get(() -> {
+				if (existing != null && !existing.isOutdated()) {
+					return existing;
+				}
+				DirCache fresh = repo.readDirCache();
+				fresh.getCacheTree(true);
+				return fresh;
+			})));
+		}
+		return dirCache;
+	}
+
+	/** Unwraps the IOExceptions which were wrapped by {@link ThrowingEx} to get them through a `ConcurrentHashMap.compute`. */
+	private static <T> T rethrowIO(Supplier<T> supplier) throws IOException {
+		try {
+			return supplier.get();
+		} catch (ThrowingEx.WrappedAsRuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
 
 	/**
 	 * The first part of making this fast is finding the appropriate git repository quickly.  Because of composite
 	 * builds and submodules, it's quite possible that a single Gradle project will span across multiple git repositories.
 	 * We cache the Repository for every Project in `gitRoots`, and use dynamic programming to populate it.
+	 * If two threads race to populate the same project, the first one wins and the other closes its Repository.
 	 */
 	protected Repository repositoryFor(Project project) throws IOException {
 		Repository repo = gitRoots.get(project);
 		if (repo == null) {
+			boolean created = true;
 			if (isGitRoot(getDir(project))) {
 				repo = createRepo(getDir(project));
 			} else {
@@ -159,10 +316,17 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 					repo = traverseParentsUntil(getDir(project).getParentFile(), getDir(parentProj));
 					if (repo == null) {
 						repo = repositoryFor(parentProj);
+						created = false;
 					}
 				}
 			}
-			gitRoots.put(project, repo);
+			Repository existing = gitRoots.putIfAbsent(project, repo);
+			if (existing != null) {
+				if (created) {
+					repo.close();
+				}
+				repo = existing;
+			}
 		}
 		return repo;
 	}
@@ -206,7 +370,7 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 		}
 	}
 
-	private static boolean isGitRoot(File dir) {
+	static boolean isGitRoot(File dir) {
 		File dotGit = getDotGitDir(dir, Constants.DOT_GIT);
 		return dotGit != null && RepositoryCache.FileKey.isGitRepository(dotGit, FS.DETECTED);
 	}
@@ -217,14 +381,14 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 
 	/**
 	 * Fast way to return treeSha of the given ref against the git repository which stores the given project.
-	 * Because of parallel project evaluation, there may be races here, so we synchronize on ourselves.  However, this method
-	 * is the only method which can trigger any changes, and it is only called during project evaluation.  That means our state
-	 * is final/read-only during task execution, so we don't need any locks during the heavy lifting.
+	 * Because of parallel project evaluation, two threads may race to compute the same sha, but they will
+	 * compute the same result, so the cache doesn't need any locks.
 	 */
-	public synchronized ObjectId rootTreeShaOf(Project project, String reference) {
+	public ObjectId rootTreeShaOf(Project project, String reference) {
 		try {
 			Repository repo = repositoryFor(project);
-			ObjectId treeSha = rootTreeShaCache.get(repo, reference);
+			Map<String, ObjectId> shaByReference = rootTreeShaCache.computeIfAbsent(repo, unused -> new ConcurrentHashMap<>());
+			ObjectId treeSha = shaByReference.get(reference);
 			if (treeSha == null) {
 				try (RevWalk revWalk = new RevWalk(repo)) {
 					ObjectId commitSha = repo.resolve(reference);
@@ -242,7 +406,7 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 					RevCommit mergeBase = revWalk.next();
 					treeSha = Optional.ofNullable(mergeBase).orElse(ratchetFrom).getTree();
 				}
-				rootTreeShaCache.put(repo, reference, treeSha);
+				shaByReference.putIfAbsent(reference, treeSha);
 			}
 			return treeSha;
 		} catch (IOException e) {
@@ -254,7 +418,7 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 	 * Returns the sha of the git subtree which represents the root of the given project, or {@link ObjectId#zeroId()}
 	 * if there is no git subtree at the project root.
 	 */
-	public synchronized ObjectId subtreeShaOf(Project project, ObjectId rootTreeSha) {
+	public ObjectId subtreeShaOf(Project project, ObjectId rootTreeSha) {
 		try {
 			ObjectId subtreeSha = subtreeShaCache.get(project);
 			if (subtreeSha == null) {
@@ -277,6 +441,14 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 
 	@Override
 	public void close() {
+		closed = true;
+		for (Queue<ObjectReader> idle : idleReaders.values()) {
+			ObjectReader reader;
+			while ((reader = idle.poll()) != null) {
+				reader.close();
+			}
+		}
+		idleReaders.clear();
 		gitRoots.values().stream()
 				.distinct()
 				.forEach(Repository::close);
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.diffplug.spotless.FileSignature;
+import com.diffplug.spotless.ThrowingEx;
+import com.diffplug.spotless.generic.LicenseHeaderStep;
+
+/**
+ * Finds the years of the oldest and most recent commits of each file for
+ * {@link LicenseHeaderStep.YearMode#SET_FROM_GIT}, without running `git log` for every file.
+ *
+ * The first time a repository is used, a single walk over its history builds an index
+ * of every file at HEAD to the years of the commit which added it (following renames, like
+ * `git log --follow --find-renames=40%`) and of the most recent commit which touched it.
+ * Merge commits are skipped, like `git log` does by default.  The index is stored in the
+ * git directory, and reused until HEAD moves.
+ */
+public final class GitYearIndex implements LicenseHeaderStep.YearsFromGit {
+	private static final String HEADER = "spotless-license-years v1 ";
+	private static final String INDEX_FILE = "spotless-license-years";
+	private static final int RENAME_SCORE = 40;
+	/** HEAD is checked at most this often, to notice commits made while a daemon is running. */
+	private static final long HEAD_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static final GitYearIndex SHARED = new GitYearIndex();
+
+	/** Returns an index which is shared by the whole JVM, so that each repository is walked only once. */
+	public static GitYearIndex shared() {
+		return SHARED;
+	}
+
+	private GitYearIndex() {}
+
+	private final Map<File, Optional<File>> workTreeByDir = new ConcurrentHashMap<>();
+	private final Map<File, RepoIndex> indexByWorkTree = new ConcurrentHashMap<>();
+
+	@Override
+	public @Nullable int[] firstAndLastYear(File file) throws IOException {
+		File absolute = file.getAbsoluteFile();
+		File workTree = workTreeFor(absolute.getParentFile());
+		if (workTree == null) {
+			return null;
+		}
+		RepoIndex index = indexFor(workTree);
+		String relativePath = FileSignature.pathNativeToUnix(workTree.toPath().relativize(absolute.toPath()).toString());
+		return index.years.get(relativePath);
+	}
+
+	private @Nullable File workTreeFor(@Nullable File dir) {
+		if (dir == null) {
+			return null;
+		}
+		Optional<File> cached = workTreeByDir.get(dir);
+		if (cached == null) {
+			cached = Optional.ofNullable(GitRatchet.isGitRoot(dir) ? dir : workTreeFor(dir.getParentFile()));
+			workTreeByDir.put(dir, cached);
+		}
+		return cached.orElse(null);
+	}
+
+	private RepoIndex indexFor(File workTree) throws IOException {
+		RepoIndex index = indexByWorkTree.get(workTree);
+		if (index != null && System.nanoTime() - index.checkedAtNanos < HEAD_CHECK_INTERVAL_NANOS) {
+			return index;
+		}
+		try {
+			return indexByWorkTree.compute(workTree, (dir, existing) -> ThrowingEx.get(() -> {
+				try (Repository repo = GitRatchet.createRepo(dir)) {
+					ObjectId head = repo.resolve(Constants.HEAD);
+					if (existing != null && Objects.equals(existing.head, head)) {
+						existing.checkedAtNanos = System.nanoTime();
+						return existing;
+					}
+					return load(repo, head);
+				}
+			}));
+		} catch (ThrowingEx.WrappedAsRuntimeException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	private static final class RepoIndex {
+		final @Nullable ObjectId head;
+		final Map<String, int[]> years;
+		volatile long checkedAtNanos = System.nanoTime();
+
+		RepoIndex(@Nullable ObjectId head, Map<String, int[]> years) {
+			this.head = head;
+			this.years = years;
+		}
+	}
+
+	/** Reads the index from the git dir if it was written for this HEAD, otherwise builds and writes it. */
+	private static RepoIndex load(Repository repo, @Nullable ObjectId head) throws IOException {
+		if (head == null) {
+			// no commits yet
+			return new RepoIndex(null, new HashMap<>());
+		}
+		Path indexFile = repo.getDirectory().toPath().resolve(INDEX_FILE);
+		Map<String, int[]> years = read(indexFile, head);
+		if (years == null) {
+			years = build(repo, head);
+			write(indexFile, head, years);
+		}
+		return new RepoIndex(head, years);
+	}
+
+	private static @Nullable Map<String, int[]> read(Path indexFile, ObjectId head) throws IOException {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(indexFile, UTF_8);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		if (lines.isEmpty() || !lines.get(0).equals(HEADER + head.name())) {
+			return null;
+		}
+		Map<String, int[]> years = new HashMap<>(lines.size() * 4 / 3 + 1);
+		for (String line : lines.subList(1, lines.size())) {
+			String[] parts = line.split(" ", 3);
+			if (parts.length != 3) {
+				// the index is only an optimization, so a corrupt index is just rebuilt
+				return null;
+			}
+			try {
+				years.put(parts[2], new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])});
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return years;
+	}
+
+	private static void write(Path indexFile, ObjectId head, Map<String, int[]> years) {
+		Path tmpFile = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, UTF_8)) {
+				writer.write(HEADER + head.name());
+				writer.write('\n');
+				for (Map.Entry<String, int[]> entry : years.entrySet()) {
+					writer.write(entry.getValue()[0] + " " + entry.getValue()[1] + " " + entry.getKey());
+					writer.write('\n');
+				}
+			}
+			Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// the index is only an optimization, so we can still use it even if we can't save it
+		}
+	}
+
+	/** A file at HEAD, which is tracked backwards through history under whatever name it had at the time. */
+	private static final class Tracked {
+		final String headPath;
+		int firstYear;
+		int lastYear;
+
+		Tracked(String headPath) {
+			this.headPath = headPath;
+		}
+
+		void touch(int year) {
+			// we walk from newest to oldest
+			if (lastYear == 0) {
+				lastYear = year;
+			}
+			firstYear = year;
+		}
+	}
+
+	static Map<String, int[]> build(Repository repo, ObjectId head) throws IOException {
+		List<Tracked> all = new ArrayList<>();
+		Map<String, Tracked> trackedByPath = new HashMap<>();
+		try (ObjectReader reader = repo.newObjectReader();
+				RevWalk revWalk = new RevWalk(reader)) {
+			RevCommit headCommit = revWalk.parseCommit(head);
+			try (TreeWalk treeWalk = new TreeWalk(reader)) {
+				treeWalk.setRecursive(true);
+				treeWalk.addTree(headCommit.getTree());
+				while (treeWalk.next()) {
+					Tracked tracked = new Tracked(treeWalk.getPathString());
+					all.add(tracked);
+					trackedByPath.put(tracked.headPath, tracked);
+				}
+			}
+
+			RenameDetector renameDetector = new RenameDetector(reader, repo.getConfig().get(DiffConfig.KEY));
+			renameDetector.setRenameScore(RENAME_SCORE);
+			// children before parents, so that renames are seen before the commits which used the old name
+			revWalk.sort(RevSort.TOPO);
+			revWalk.sort(RevSort.COMMIT_TIME_DESC, true);
+			revWalk.markStart(headCommit);
+			try (TreeWalk treeWalk = new TreeWalk(reader)) {
+				treeWalk.setRecursive(true);
+				treeWalk.setFilter(TreeFilter.ANY_DIFF);
+				RevCommit commit;
+				while ((commit = revWalk.next()) != null && !trackedByPath.isEmpty()) {
+					if (commit.getParentCount() > 1) {
+						continue;
+					}
+					treeWalk.reset();
+					if (commit.getParentCount() == 0) {
+						treeWalk.addTree(new EmptyTreeIterator());
+					} else {
+						treeWalk.addTree(revWalk.parseCommit(commit.getParent(0)).getTree());
+					}
+					treeWalk.addTree(commit.getTree());
+					List<DiffEntry> diffs = DiffEntry.scan(treeWalk);
+					if (!touchesTracked(diffs, trackedByPath)) {
+						continue;
+					}
+					if (needsRenameDetection(diffs, trackedByPath)) {
+						renameDetector.reset();
+						renameDetector.addAll(diffs);
+						diffs = renameDetector.compute();
+					}
+					int year = yearOf(commit.getAuthorIdent());
+					for (DiffEntry diff : diffs) {
+						Tracked tracked;
+						switch (diff.getChangeType()) {
+						case MODIFY:
+							tracked = trackedByPath.get(diff.getNewPath());
+							if (tracked != null) {
+								tracked.touch(year);
+							}
+							break;
+						case RENAME:
+							tracked = trackedByPath.remove(diff.getNewPath());
+							if (tracked != null) {
+								tracked.touch(year);
+								trackedByPath.putIfAbsent(diff.getOldPath(), tracked);
+							}
+							break;
+						case ADD:
+						case COPY:
+							tracked = trackedByPath.remove(diff.getNewPath());
+							if (tracked != null) {
+								// this is where it was added, so we don't need to look any further back
+								tracked.touch(year);
+							}
+							break;
+						case DELETE:
+						default:
+							break;
+						}
+					}
+				}
+			}
+		}
+		Map<String, int[]> years = new HashMap<>(all.size() * 4 / 3 + 1);
+		for (Tracked tracked : all) {
+			if (tracked.lastYear != 0) {
+				years.put(tracked.headPath, new int[]{tracked.firstYear, tracked.lastYear});
+			}
+		}
+		return years;
+	}
+
+	private static boolean touchesTracked(List<DiffEntry> diffs, Map<String, Tracked> trackedByPath) {
+		for (DiffEntry diff : diffs) {
+			if (diff.getChangeType() != DiffEntry.ChangeType.DELETE && trackedByPath.containsKey(diff.getNewPath())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Rename detection is expensive, and only matters if a tracked file was added while another was deleted. */
+	private static boolean needsRenameDetection(List<DiffEntry> diffs, Map<String, Tracked> trackedByPath) {
+		boolean addsTracked = false;
+		boolean deletes = false;
+		for (DiffEntry diff : diffs) {
+			if (diff.getChangeType() == DiffEntry.ChangeType.ADD && trackedByPath.containsKey(diff.getNewPath())) {
+				addsTracked = true;
+			} else if (diff.getChangeType() == DiffEntry.ChangeType.DELETE) {
+				deletes = true;
+			}
+		}
+		return addsTracked && deletes;
+	}
+
+	/** Same year as the `Date:` line of `git log`, which is the author date in the author's timezone. */
+	private static int yearOf(PersonIdent ident) {
+		Calendar calendar = Calendar.getInstance(ident.getTimeZone());
+		calendar.setTime(ident.getWhen());
+		return calendar.get(Calendar.YEAR);
+	}
+}
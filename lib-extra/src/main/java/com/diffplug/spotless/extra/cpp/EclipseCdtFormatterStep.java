@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,9 +15,6 @@
  */
 package com.diffplug.spotless.extra.cpp;
 
-import java.lang.reflect.Method;
-import java.util.Properties;
-
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.Provisioner;
 import com.diffplug.spotless.extra.EclipseBasedStepBuilder;
@@ -37,7 +34,6 @@ public final class EclipseCdtFormatterStep {
 	private static final String NAME = "eclipse cdt formatter";
 	private static final String FORMATTER_CLASS = "com.diffplug.spotless.extra.eclipse.cdt.EclipseCdtFormatterStepImpl";
 	private static final String DEFAULT_VERSION = "4.16.0";
-	private static final String FORMATTER_METHOD = "format";
 
 	public static String defaultVersion() {
 		return DEFAULT_VERSION;
@@ -49,10 +45,8 @@ public final class EclipseCdtFormatterStep {
 	}
 
 	private static FormatterFunc apply(State state) throws Exception {
-		Class<?> formatterClazz = state.loadClass(FORMATTER_CLASS);
-		Object formatter = formatterClazz.getConstructor(Properties.class).newInstance(state.getPreferences());
-		Method method = formatterClazz.getMethod(FORMATTER_METHOD, String.class);
-		return input -> (String) method.invoke(formatter, input);
+		// each CodeFormatter keeps its state to itself, so the instances can share a class loader
+		return state.getPool(FORMATTER_CLASS, false).asFormatterFunc();
 	}
 
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,10 +15,6 @@
  */
 package com.diffplug.spotless.extra.groovy;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Properties;
-
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.Provisioner;
 import com.diffplug.spotless.extra.EclipseBasedStepBuilder;
@@ -34,7 +30,6 @@ public final class GrEclipseFormatterStep {
 	private static final String FORMATTER_CLASS_OLD = "com.diffplug.gradle.spotless.groovy.eclipse.GrEclipseFormatterStepImpl";
 	private static final String MAVEN_GROUP_ARTIFACT = "com.diffplug.spotless:spotless-eclipse-groovy";
 	private static final String DEFAULT_VERSION = "4.17.0";
-	private static final String FORMATTER_METHOD = "format";
 
 	public static String defaultVersion() {
 		return DEFAULT_VERSION;
@@ -46,25 +41,16 @@ public final class GrEclipseFormatterStep {
 	}
 
 	private static FormatterFunc apply(EclipseBasedStepBuilder.State state) throws Exception {
-		Class<?> formatterClazz = getClass(state);
-		Object formatter = formatterClazz.getConstructor(Properties.class).newInstance(state.getPreferences());
-		Method method = formatterClazz.getMethod(FORMATTER_METHOD, String.class);
-		return input -> {
-			try {
-				return (String) method.invoke(formatter, input);
-			} catch (InvocationTargetException exceptionWrapper) {
-				Throwable throwable = exceptionWrapper.getTargetException();
-				Exception exception = (throwable instanceof Exception) ? (Exception) throwable : null;
-				throw (null == exception) ? exceptionWrapper : exception;
-			}
-		};
+		// the formatter reports problems through listeners on the plugin's log, which would see the
+		// problems of every file formatted at the same time in the same class loader
+		return state.getPool(getClassName(state), true).asFormatterFunc();
 	}
 
-	private static Class<?> getClass(State state) {
+	private static String getClassName(State state) {
 		if (state.getMavenCoordinate(MAVEN_GROUP_ARTIFACT).isPresent()) {
-			return state.loadClass(FORMATTER_CLASS);
+			return FORMATTER_CLASS;
 		}
-		return state.loadClass(FORMATTER_CLASS_OLD);
+		return FORMATTER_CLASS_OLD;
 	}
 
 }
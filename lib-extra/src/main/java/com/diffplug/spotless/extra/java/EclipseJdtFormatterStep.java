@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,9 +15,6 @@
  */
 package com.diffplug.spotless.extra.java;
 
-import java.lang.reflect.Method;
-import java.util.Properties;
-
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.Provisioner;
 import com.diffplug.spotless.extra.EclipseBasedStepBuilder;
@@ -33,7 +30,6 @@ public final class EclipseJdtFormatterStep {
 	private static final String FORMATTER_CLASS = "com.diffplug.spotless.extra.eclipse.java.EclipseJdtFormatterStepImpl";
 	private static final String MAVEN_GROUP_ARTIFACT = "com.diffplug.spotless:spotless-eclipse-jdt";
 	private static final String DEFAULT_VERSION = "4.18.0";
-	private static final String FORMATTER_METHOD = "format";
 
 	public static String defaultVersion() {
 		return DEFAULT_VERSION;
@@ -45,16 +41,14 @@ public final class EclipseJdtFormatterStep {
 	}
 
 	private static FormatterFunc apply(State state) throws Exception {
-		Class<?> formatterClazz = getClass(state);
-		Object formatter = formatterClazz.getConstructor(Properties.class).newInstance(state.getPreferences());
-		Method method = formatterClazz.getMethod(FORMATTER_METHOD, String.class);
-		return input -> (String) method.invoke(formatter, input);
+		// each CodeFormatter keeps its state to itself, so the instances can share a class loader
+		return state.getPool(getClassName(state), false).asFormatterFunc();
 	}
 
-	private static Class<?> getClass(State state) {
+	private static String getClassName(State state) {
 		if (state.getMavenCoordinate(MAVEN_GROUP_ARTIFACT).isPresent()) {
-			return state.loadClass(FORMATTER_CLASS);
+			return FORMATTER_CLASS;
 		}
-		return state.loadClass(FORMATTER_CLASS_OLD);
+		return FORMATTER_CLASS_OLD;
 	}
 }
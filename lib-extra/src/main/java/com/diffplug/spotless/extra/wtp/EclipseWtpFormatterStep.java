@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,10 +15,6 @@
  */
 package com.diffplug.spotless.extra.wtp;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Properties;
-
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.Provisioner;
 import com.diffplug.spotless.ThrowingEx;
@@ -37,7 +33,6 @@ public enum EclipseWtpFormatterStep {
 	private static final String NAME = "eclipse wtp formatters";
 	private static final String FORMATTER_PACKAGE = "com.diffplug.spotless.extra.eclipse.wtp.";
 	private static final String DEFAULT_VERSION = "4.18.0";
-	private static final String FORMATTER_METHOD = "format";
 
 	private final String implementationClassName;
 	private final ThrowingEx.BiFunction<String, EclipseBasedStepBuilder.State, FormatterFunc> formatterCall;
@@ -55,33 +50,13 @@ public enum EclipseWtpFormatterStep {
 		return DEFAULT_VERSION;
 	}
 
+	// The WTP formatters keep their preferences and models in their plugins,
+	// so each instance which is used at the same time needs a class loader of its own.
 	private static FormatterFunc applyWithoutFile(String className, EclipseBasedStepBuilder.State state) throws Exception {
-		Class<?> formatterClazz = state.loadClass(FORMATTER_PACKAGE + className);
-		Object formatter = formatterClazz.getConstructor(Properties.class).newInstance(state.getPreferences());
-		Method method = formatterClazz.getMethod(FORMATTER_METHOD, String.class);
-		return input -> {
-			try {
-				return (String) method.invoke(formatter, input);
-			} catch (InvocationTargetException exceptionWrapper) {
-				Throwable throwable = exceptionWrapper.getTargetException();
-				Exception exception = (throwable instanceof Exception) ? (Exception) throwable : null;
-				throw (null == exception) ? exceptionWrapper : exception;
-			}
-		};
+		return state.getPool(FORMATTER_PACKAGE + className, true).asFormatterFunc();
 	}
 
-	private static FormatterFunc.NeedsFile applyWithFile(String className, EclipseBasedStepBuilder.State state) throws Exception {
-		Class<?> formatterClazz = state.loadClass(FORMATTER_PACKAGE + className);
-		Object formatter = formatterClazz.getConstructor(Properties.class).newInstance(state.getPreferences());
-		Method method = formatterClazz.getMethod(FORMATTER_METHOD, String.class, String.class);
-		return (unixString, file) -> {
-			try {
-				return (String) method.invoke(formatter, unixString, file.getAbsolutePath());
-			} catch (InvocationTargetException exceptionWrapper) {
-				Throwable throwable = exceptionWrapper.getTargetException();
-				Exception exception = (throwable instanceof Exception) ? (Exception) throwable : null;
-				throw (null == exception) ? exceptionWrapper : exception;
-			}
-		};
+	private static FormatterFunc applyWithFile(String className, EclipseBasedStepBuilder.State state) throws Exception {
+		return state.getPool(FORMATTER_PACKAGE + className, true).asFormatterFuncWithFile();
 	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -87,4 +87,35 @@ public class GitAttributesTest extends ResourceHarness {
 		Assertions.assertThat(policy.getEndingFor(newFile("MANIFEST.MF"))).isEqualTo("\r\n");
 		Assertions.assertThat(policy.getEndingFor(newFile("subfolder/MANIFEST.MF"))).isEqualTo("\r\n");
 	}
+
+	@Test
+	public void policyEqualityIsRelocatable() throws IOException {
+		for (String root : Arrays.asList("a", "b")) {
+			setFile(root + "/.gitattributes").toContent("*.MF eol=crlf");
+			setFile(root + "/subfolder/MANIFEST.MF").toContent("");
+		}
+		LineEnding.Policy a = LineEnding.GIT_ATTRIBUTES.createPolicy(newFile("a"), () -> Arrays.asList(newFile("a/subfolder/MANIFEST.MF")));
+		LineEnding.Policy b = LineEnding.GIT_ATTRIBUTES.createPolicy(newFile("b"), () -> Arrays.asList(newFile("b/subfolder/MANIFEST.MF")));
+		Assertions.assertThat(a).isEqualTo(b);
+	}
+
+	@Test
+	public void policyEqualityTracksRules() throws IOException {
+		setFile(".gitattributes").toContent("* eol=lf");
+		LineEnding.Policy before = LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder(), () -> testFiles());
+		Assertions.assertThat(before).isEqualTo(LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder(), () -> testFiles()));
+
+		// a new .gitattributes in a subfolder changes the policy, and is picked up by the shared cache
+		setFile("subfolder/.gitattributes").toContent("*.MF eol=crlf");
+		LineEnding.Policy after = LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder(), () -> testFiles());
+		Assertions.assertThat(after).isNotEqualTo(before);
+		Assertions.assertThat(after.getEndingFor(newFile("MANIFEST.MF"))).isEqualTo("\n");
+		Assertions.assertThat(after.getEndingFor(newFile("subfolder/MANIFEST.MF"))).isEqualTo("\r\n");
+
+		// and so does a change to an existing one
+		setFile("subfolder/.gitattributes").toContent("*.MF eol=lf");
+		LineEnding.Policy changed = LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder(), () -> testFiles());
+		Assertions.assertThat(changed).isNotEqualTo(after);
+		Assertions.assertThat(changed.getEndingFor(newFile("subfolder/MANIFEST.MF"))).isEqualTo("\n");
+	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 DiffPlug
+ * Copyright 2020-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -88,6 +88,10 @@ public class GitRachetMergeBaseTest extends ResourceHarness {
 			if (actual != expected) {
 				throw new AssertionError("Expected " + filename + " to be " + (expected ? "clean" : "dirty") + " relative to " + ratchetFroms[i]);
 			}
+			boolean actualBulk = ratchet.dirtyPathsOf(rootFolder(), shas[i]).isClean(newFile(filename));
+			if (actualBulk != expected) {
+				throw new AssertionError("Expected dirtyPathsOf to find " + filename + " " + (expected ? "clean" : "dirty") + " relative to " + ratchetFroms[i]);
+			}
 		}
 
 		public void allClean() throws IOException {
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.Test;
+
+import com.diffplug.spotless.ResourceHarness;
+
+public class GitYearIndexTest extends ResourceHarness {
+	@Test
+	public void followsRenames() throws IOException, GitAPIException {
+		try (Git git = Git.init().setDirectory(rootFolder()).call()) {
+			setFile("a.txt").toContent("line1\nline2\nline3\nline4\nline5\n");
+			setFile("b.txt").toContent("b\n");
+			commit(git, 2010);
+			setFile("b.txt").toContent("b\nmore\n");
+			commit(git, 2012);
+			git.mv().setSource("a.txt").setDestination("renamed.txt").call();
+			commit(git, 2014);
+			setFile("c.txt").toContent("c\n");
+			commit(git, 2016);
+			setFile("renamed.txt").toContent("line1\nline2\nline3\nline4\nline5\nline6\n");
+			commit(git, 2018);
+		}
+		assertThat(GitYearIndex.shared().firstAndLastYear(newFile("renamed.txt"))).containsExactly(2010, 2018);
+		assertThat(GitYearIndex.shared().firstAndLastYear(newFile("b.txt"))).containsExactly(2010, 2012);
+		assertThat(GitYearIndex.shared().firstAndLastYear(newFile("c.txt"))).containsExactly(2016, 2016);
+		assertThat(GitYearIndex.shared().firstAndLastYear(newFile("untracked.txt"))).isNull();
+		// the index was saved for the next build
+		assertThat(read(".git/spotless-license-years")).contains("2010 2018 renamed.txt\n");
+	}
+
+	private static void commit(Git git, int year) throws GitAPIException {
+		Date date = Date.from(ZonedDateTime.of(year, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC).toInstant());
+		PersonIdent ident = new PersonIdent("author", "author@example.com", date, TimeZone.getTimeZone("UTC"));
+		git.add().addFilepattern(".").call();
+		git.commit().setMessage(Integer.toString(year)).setAuthor(ident).setCommitter(ident).call();
+	}
+}
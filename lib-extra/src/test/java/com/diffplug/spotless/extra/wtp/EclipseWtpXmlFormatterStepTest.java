@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra.wtp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import com.diffplug.spotless.FormatterStep;
+import com.diffplug.spotless.ResourceHarness;
+import com.diffplug.spotless.TestProvisioner;
+import com.diffplug.spotless.extra.EclipseBasedStepBuilder;
+
+/** The XML formatter is the only WTP formatter which needs the file, so its step is built separately here. */
+public class EclipseWtpXmlFormatterStepTest extends ResourceHarness {
+	@Test
+	public void buildsAndFormatsWithTheFile() throws Exception {
+		EclipseBasedStepBuilder builder = EclipseWtpFormatterStep.XML.createBuilder(TestProvisioner.mavenCentral());
+		builder.setVersion(EclipseWtpFormatterStep.defaultVersion());
+		FormatterStep step = builder.build();
+		File file = setFile("test.xml").toContent("<a><b>   c</b></a>");
+		assertThat(step.format("<a><b>   c</b></a>", file)).isEqualTo("<a>\n\t<b> c</b>\n</a>");
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+/**
+ * A content-addressed cache of {@link PaddedCell#calculateDirtyState(Formatter, File, byte[])}, stored
+ * in a local directory which can be shared by many projects, branches and builds on the same machine.
+ *
+ * Each entry is keyed on the formatter's serialized steps, exception policy and encoding, along
+ * with the file's line ending, its path relative to the formatter's root, and a hash of its content.
+ * The path is part of the key because steps are allowed to depend on it (e.g. `filterByFile`, or
+ * prettier picking a parser based on the extension).  An entry stores either a marker that the file
+ * was clean (or did not converge), or the canonical bytes of the file.
+ *
+ * When the directory grows beyond its maximum size, the least-recently-used entries are evicted.
+ * Rather than walking the whole directory every time it is opened, the cache keeps a running total of
+ * its size in a file next to the entries, which is only recounted when it is evicted.  Each entry counts
+ * as at least one filesystem block, because that's what it takes up on disk.  Close the cache to add
+ * the entries it wrote to the running total.
+ */
+public final class DirtyStateCache implements AutoCloseable {
+	private static final String VERSION = "spotless-dirty-state-cache-v1";
+	private static final String SIZE_FILE = "size";
+	private static final long BLOCK_SIZE = 4096;
+
+	private static final byte CLEAN = 'C';
+	private static final byte DID_NOT_CONVERGE = 'N';
+	private static final byte DIRTY = 'D';
+
+	/** When the cache is evicted, it is trimmed down to this fraction of its max size. */
+	private static final double EVICT_TO = 0.75;
+
+	private final Path dir;
+	private final Path sizeFile;
+	private final long maxSize;
+	/** Our estimate of the total size, which includes {@link #unrecorded}. */
+	private final AtomicLong size;
+	/** The size of the entries which we wrote, but haven't added to the size file yet. */
+	private final AtomicLong unrecorded = new AtomicLong();
+	/** False if there was no size file, in which case the first write counts the entries. */
+	private volatile boolean sizeKnown;
+	/** The key of formatters which can't be cached, see {@link #formatterKey(Formatter)}. */
+	private static final byte[] UNCACHEABLE = new byte[0];
+	/** Keys are compared by identity, because Formatter's equality requires serialization. */
+	private final Map<Formatter, byte[]> formatterKeys = Collections.synchronizedMap(new IdentityHashMap<>());
+
+	private DirtyStateCache(Path dir, long maxSize, @Nullable Long size) {
+		this.dir = dir;
+		this.sizeFile = dir.resolve(SIZE_FILE);
+		this.maxSize = maxSize;
+		this.size = new AtomicLong(size == null ? 0 : size);
+		this.sizeKnown = size != null;
+	}
+
+	/** Opens the cache in the given directory, creating it if necessary. */
+	public static DirtyStateCache open(File dir, long maxSizeBytes) throws IOException {
+		Objects.requireNonNull(dir, "dir");
+		if (maxSizeBytes <= 0) {
+			throw new IllegalArgumentException("maxSizeBytes must be positive, was " + maxSizeBytes);
+		}
+		Path path = dir.toPath();
+		Files.createDirectories(path);
+		return new DirtyStateCache(path, maxSizeBytes, readSize(path.resolve(SIZE_FILE)));
+	}
+
+	/** Adds the entries which this cache wrote to the size which is shared with later builds. */
+	@Override
+	public void close() throws IOException {
+		if (unrecorded.get() != 0) {
+			recordSize();
+		}
+	}
+
+	/** Returns the cached dirty state of the given file, calculating and storing it if necessary. */
+	public PaddedCell.DirtyState calculateDirtyState(Formatter formatter, File file) throws IOException {
+		Objects.requireNonNull(formatter, "formatter");
+		Objects.requireNonNull(file, "file");
+
+		byte[] rawBytes = Files.readAllBytes(file.toPath());
+		return calculateDirtyState(formatter, file, rawBytes);
+	}
+
+	/** Returns the cached dirty state of the given file, calculating and storing it if necessary. */
+	public PaddedCell.DirtyState calculateDirtyState(Formatter formatter, File file, byte[] rawBytes) throws IOException {
+		byte[] formatterKey = formatterKeys.computeIfAbsent(formatter, DirtyStateCache::formatterKey);
+		if (formatterKey == UNCACHEABLE) {
+			return PaddedCell.calculateDirtyState(formatter, file, rawBytes);
+		}
+		Path entry = entryFor(formatterKey, formatter, file, rawBytes);
+		PaddedCell.DirtyState cached = read(entry);
+		if (cached != null) {
+			return cached;
+		}
+		PaddedCell.DirtyState dirtyState = PaddedCell.calculateDirtyState(formatter, file, rawBytes);
+		write(entry, dirtyState);
+		return dirtyState;
+	}
+
+	private Path entryFor(byte[] formatterKey, Formatter formatter, File file, byte[] rawBytes) {
+		String relativePath = FileSignature.pathNativeToUnix(formatter.getRootDir().relativize(file.toPath()).toString());
+		String lineEnding = formatter.getLineEndingsPolicy().getEndingFor(file);
+
+		MessageDigest digest = sha256();
+		digest.update(VERSION.getBytes(UTF_8));
+		digest.update(formatterKey);
+		digest.update(lineEnding.getBytes(UTF_8));
+		digest.update((byte) 0);
+		digest.update(relativePath.getBytes(UTF_8));
+		digest.update((byte) 0);
+		digest.update(sha256().digest(rawBytes));
+		String hex = toHex(digest.digest());
+		// two-level layout, so that no single directory gets too large
+		return dir.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+	}
+
+	/**
+	 * Returns {@link #UNCACHEABLE} if any of the steps is never up-to-date (e.g. a Gradle `custom` step),
+	 * because its random state would make a new key, which never hits, for every build.
+	 */
+	private static byte[] formatterKey(Formatter formatter) {
+		for (FormatterStep step : formatter.getSteps()) {
+			if (FormatterStepImpl.isNeverUpToDate(step)) {
+				return UNCACHEABLE;
+			}
+		}
+		List<Serializable> parts = new ArrayList<>(Arrays.asList(
+				formatter.getEncoding().name(),
+				new ArrayList<>(formatter.getSteps()),
+				formatter.getExceptionPolicy()));
+		return sha256().digest(LazyForwardingEquality.toBytes((Serializable) parts));
+	}
+
+	private @Nullable PaddedCell.DirtyState read(Path entry) {
+		byte[] content;
+		try {
+			content = Files.readAllBytes(entry);
+		} catch (IOException e) {
+			// usually NoSuchFileException, and the cache is only an optimization anyway
+			return null;
+		}
+		if (content.length == 0) {
+			return null;
+		}
+		try {
+			// mark as recently used
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// evicted by someone else in the meantime, but we already have the content
+		}
+		switch (content[0]) {
+		case CLEAN:
+			return PaddedCell.isClean();
+		case DID_NOT_CONVERGE:
+			return PaddedCell.didNotConverge();
+		case DIRTY:
+			return new PaddedCell.DirtyState(Arrays.copyOfRange(content, 1, content.length));
+		default:
+			return null;
+		}
+	}
+
+	private void write(Path entry, PaddedCell.DirtyState dirtyState) throws IOException {
+		byte[] content;
+		if (dirtyState.isClean()) {
+			content = new byte[]{CLEAN};
+		} else if (dirtyState.didNotConverge()) {
+			content = new byte[]{DID_NOT_CONVERGE};
+		} else {
+			byte[] canonical = dirtyState.canonicalBytes();
+			content = new byte[canonical.length + 1];
+			content[0] = DIRTY;
+			System.arraycopy(canonical, 0, content, 1, canonical.length);
+		}
+		Path parent = entry.getParent();
+		Files.createDirectories(parent);
+		// write then move, so that concurrent readers never see a partial entry
+		Path tmp = Files.createTempFile(parent, entry.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, content);
+			Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		long diskUsage = diskUsage(content.length);
+		long unrecordedSize = unrecorded.addAndGet(diskUsage);
+		if (size.addAndGet(diskUsage) > maxSize || !sizeKnown) {
+			evict();
+		} else if (unrecordedSize > maxSize / 16) {
+			// so that a build which dies before closing the cache doesn't lose all of its writes
+			recordSize();
+		}
+	}
+
+	/** Adds {@link #unrecorded} to the size file, picking up whatever other builds added to it in the meantime. */
+	private synchronized void recordSize() throws IOException {
+		long added = unrecorded.getAndSet(0);
+		Long recorded = readSize(sizeFile);
+		long total = recorded == null ? size.get() : recorded + added;
+		writeSize(total);
+		size.set(total + unrecorded.get());
+	}
+
+	/** Deletes the least-recently-used entries until the cache is comfortably below its max size. */
+	private synchronized void evict() throws IOException {
+		if (sizeKnown && size.get() <= maxSize) {
+			// another thread already evicted
+			return;
+		}
+		List<Path> entries;
+		try (Stream<Path> files = Files.walk(dir)) {
+			// the entries are all in subdirectories, the top level only has the size file
+			entries = files.filter(file -> Files.isRegularFile(file) && !file.getParent().equals(dir)).collect(Collectors.toList());
+		}
+		List<Entry> withAttributes = new ArrayList<>(entries.size());
+		long total = 0;
+		for (Path entry : entries) {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+				withAttributes.add(new Entry(entry, attributes.lastModifiedTime(), diskUsage(attributes.size())));
+				total += diskUsage(attributes.size());
+			} catch (NoSuchFileException e) {
+				// evicted by another process
+			}
+		}
+		if (total > maxSize) {
+			withAttributes.sort(Comparator.comparing(entry -> entry.lastUsed));
+			long target = (long) (maxSize * EVICT_TO);
+			for (Entry entry : withAttributes) {
+				if (total <= target) {
+					break;
+				}
+				Files.deleteIfExists(entry.path);
+				total -= entry.size;
+			}
+		}
+		// the count includes everything we wrote so far
+		unrecorded.set(0);
+		writeSize(total);
+		size.set(total);
+		sizeKnown = true;
+	}
+
+	private static final class Entry {
+		final Path path;
+		final FileTime lastUsed;
+		final long size;
+
+		Entry(Path path, FileTime lastUsed, long size) {
+			this.path = path;
+			this.lastUsed = lastUsed;
+			this.size = size;
+		}
+	}
+
+	/** Rounds the given file size up to whole filesystem blocks, counting at least one block even for tiny entries. */
+	static long diskUsage(long fileSize) {
+		return Math.max(1, (fileSize + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
+	}
+
+	private static @Nullable Long readSize(Path sizeFile) {
+		try {
+			return Long.parseLong(new String(Files.readAllBytes(sizeFile), UTF_8).trim());
+		} catch (IOException | NumberFormatException e) {
+			// missing or corrupt, so the first write will count the entries
+			return null;
+		}
+	}
+
+	private void writeSize(long total) throws IOException {
+		// write then move, so that concurrent readers never see a partial size
+		Path tmp = Files.createTempFile(dir, SIZE_FILE, ".tmp");
+		try {
+			Files.write(tmp, Long.toString(total).getBytes(UTF_8));
+			Files.move(tmp, sizeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 digest algorithm not available", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+}
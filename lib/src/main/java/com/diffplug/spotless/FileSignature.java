@@ -20,18 +20,21 @@ import static com.diffplug.spotless.MoreIterables.toSortedSet;
 import static java.util.Comparator.comparing;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -135,43 +138,77 @@ public final class FileSignature implements Serializable {
 		return files;
 	}
 
+	/**
+	 * Persists the hashes of signed files to the given store file, and reuses the hashes which are
+	 * already there, so that a fresh JVM (e.g. a new Gradle daemon) doesn't have to hash the same
+	 * jars again.  Entries are only reused if the file's size and last-modified time still match.
+	 * Calling this again with the same file has no effect.
+	 */
+	public static void persistCacheTo(File storeFile) throws IOException {
+		cache.persistTo(storeFile);
+	}
+
 	/**
 	 * It is very common for a given set of files to be "signed" many times.  For example,
 	 * the jars which constitute any given formatter live in a central cache, but will be signed
-	 * over and over.  To save this I/O, we maintain a cache, invalidated by lastModified time.
+	 * over and over.  To save this I/O, we maintain a cache, invalidated by size and lastModified time.
 	 */
 	static final Cache cache = new Cache();
 
 	private static final class Cache {
-		Map<String, Sig> cache = new HashMap<>();
+		final Map<String, Sig> cache = new ConcurrentHashMap<>();
+		@Nullable
+		volatile FileSignatureStore store;
+
+		synchronized void persistTo(File storeFile) throws IOException {
+			FileSignatureStore current = store;
+			if (current == null || !current.file().equals(storeFile)) {
+				store = FileSignatureStore.open(storeFile);
+			}
+		}
 
-		synchronized Sig sign(File fileInput) throws IOException {
+		Sig sign(File fileInput) throws IOException {
 			String canonicalPath = fileInput.getCanonicalPath();
-			Sig sig = cache.computeIfAbsent(canonicalPath, ThrowingEx.<String, Sig> wrap(p -> {
-				MessageDigest digest = MessageDigest.getInstance("SHA-256");
-				File file = new File(p);
-				// calculate the size and content hash of the file
-				long size = 0;
-				byte[] buf = new byte[1024];
-				long lastModified;
-				try (InputStream input = new FileInputStream(file)) {
-					lastModified = file.lastModified();
-					int numRead;
-					while ((numRead = input.read(buf)) != -1) {
-						size += numRead;
-						digest.update(buf, 0, numRead);
-					}
-				}
-				return new Sig(file.getName(), size, digest.digest(), lastModified);
-			}));
-			long lastModified = fileInput.lastModified();
-			if (sig.lastModified != lastModified) {
-				cache.remove(canonicalPath);
-				return sign(fileInput);
-			} else {
+			File file = new File(canonicalPath);
+			long lastModified = file.lastModified();
+			long size = file.length();
+			Sig sig = cache.get(canonicalPath);
+			if (sig != null && sig.lastModified == lastModified && sig.size == size) {
 				return sig;
 			}
+			// different files are hashed concurrently, and a race on the same file just hashes it twice
+			FileSignatureStore store = this.store;
+			byte[] stored = store == null ? null : store.get(canonicalPath, size, lastModified);
+			if (stored != null) {
+				sig = new Sig(file.getName(), size, stored, lastModified);
+			} else {
+				sig = hash(file, lastModified);
+				if (store != null && sig.size == size) {
+					store.put(canonicalPath, sig.size, lastModified, sig.hash);
+				}
+			}
+			cache.put(canonicalPath, sig);
+			return sig;
 		}
+
+		/** Calculates the size and content hash of the file, reading it through a large NIO buffer. */
+		private static Sig hash(File file, long lastModified) throws IOException {
+			MessageDigest digest = ThrowingEx.get(() -> MessageDigest.getInstance("SHA-256"));
+			long size = 0;
+			ByteBuffer buf = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				int numRead;
+				while ((numRead = channel.read(buf)) != -1) {
+					size += numRead;
+					buf.flip();
+					digest.update(buf);
+					buf.clear();
+				}
+			}
+			return new Sig(file.getName(), size, digest.digest(), lastModified);
+		}
+
+		private static final int HASH_BUFFER_SIZE = 64 * 1024;
 	}
 
 	@SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
@@ -180,9 +217,7 @@ public final class FileSignature implements Serializable {
 
 		@SuppressWarnings("unused")
 		final String name;
-		@SuppressWarnings("unused")
 		final long size;
-		@SuppressWarnings("unused")
 		final byte[] hash;
 		/** transient because state should be transferable from machine to machine. */
 		final transient long lastModified;
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk record of the hashes computed by {@link FileSignature}, so that a fresh JVM doesn't
+ * have to hash the same formatter jars and config files all over again.
+ *
+ * Each line is `size lastModified sha256hex canonicalPath`, and later lines win.  An entry is only
+ * used if the file's size and last-modified time still match.  New entries are appended as they are
+ * computed, so several processes can share one store, and the stale lines (along with the files
+ * which no longer exist) are compacted away the next time the store is opened.
+ *
+ * Like git's index, an entry whose last-modified time is not older than the store file after it was
+ * appended is "racy": the file might be modified again within the same timestamp tick, keeping its
+ * size and last-modified time.  Such an entry is revoked with a `- canonicalPath` line right away,
+ * so that the file is hashed again next time.
+ */
+final class FileSignatureStore {
+	private static final String HEADER = "spotless-file-signatures v1";
+	private static final String REMOVED = "-";
+
+	private final Path storeFile;
+	private final Map<String, Entry> entries;
+
+	private FileSignatureStore(Path storeFile, Map<String, Entry> entries) {
+		this.storeFile = storeFile;
+		this.entries = entries;
+	}
+
+	/** Reads the given store file, creating it if it doesn't exist, and compacting it if it has too many stale lines. */
+	static FileSignatureStore open(File file) throws IOException {
+		Path storeFile = file.toPath();
+		Map<String, Entry> entries = new ConcurrentHashMap<>();
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(storeFile, UTF_8);
+		} catch (NoSuchFileException e) {
+			lines = null;
+		}
+		boolean valid = lines != null && !lines.isEmpty() && lines.get(0).equals(HEADER);
+		if (valid) {
+			for (String line : lines.subList(1, lines.size())) {
+				if (line.startsWith(REMOVED + " ")) {
+					entries.remove(line.substring(REMOVED.length() + 1));
+					continue;
+				}
+				String[] parts = line.split(" ", 4);
+				if (parts.length != 4) {
+					// probably a concurrent append which was cut short, the store is only an optimization anyway
+					continue;
+				}
+				try {
+					entries.put(parts[3], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), fromHex(parts[2])));
+				} catch (IllegalArgumentException e) {
+					continue;
+				}
+			}
+		}
+		// so that the store doesn't keep every file which was ever signed
+		entries.keySet().removeIf(canonicalPath -> !new File(canonicalPath).exists());
+		FileSignatureStore store = new FileSignatureStore(storeFile, entries);
+		if (!valid || lines.size() - 1 > 2 * entries.size() + 100) {
+			store.compact();
+		}
+		return store;
+	}
+
+	File file() {
+		return storeFile.toFile();
+	}
+
+	/** Returns the hash of the given file, or null if it isn't stored or the file has changed since. */
+	@Nullable
+	byte[] get(String canonicalPath, long size, long lastModified) {
+		Entry entry = entries.get(canonicalPath);
+		if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+			return entry.hash;
+		} else {
+			return null;
+		}
+	}
+
+	/** Records the hash of the given file, and appends it to the store file, unless the entry is racy. */
+	synchronized void put(String canonicalPath, long size, long lastModified, byte[] hash) throws IOException {
+		Entry entry = new Entry(size, lastModified, hash);
+		append(entry.toLine(canonicalPath));
+		// the store file's timestamp has the same clock and granularity as the file's
+		if (lastModified < Files.getLastModifiedTime(storeFile).toMillis()) {
+			entries.put(canonicalPath, entry);
+		} else {
+			entries.remove(canonicalPath);
+			append(REMOVED + " " + canonicalPath);
+		}
+	}
+
+	private void append(String line) throws IOException {
+		// a single small write, so that concurrent appends from other processes don't interleave
+		Files.write(storeFile, (line + "\n").getBytes(UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/** Rewrites the store file with only the current entries, replacing the previous one atomically. */
+	private synchronized void compact() throws IOException {
+		Files.createDirectories(storeFile.toAbsolutePath().getParent());
+		Path tmpFile = Files.createTempFile(storeFile.toAbsolutePath().getParent(), storeFile.getFileName().toString(), ".tmp");
+		try {
+			try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, UTF_8)) {
+				writer.write(HEADER);
+				writer.write('\n');
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					writer.write(entry.getValue().toLine(entry.getKey()));
+					writer.write('\n');
+				}
+			}
+			Files.move(tmpFile, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmpFile);
+		}
+	}
+
+	private static final class Entry {
+		final long size;
+		final long lastModified;
+		final byte[] hash;
+
+		Entry(long size, long lastModified, byte[] hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		String toLine(String canonicalPath) {
+			return size + " " + lastModified + " " + toHex(hash) + " " + canonicalPath;
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+
+	private static byte[] fromHex(String hex) {
+		if (hex.length() % 2 != 0) {
+			throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+		}
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; ++i) {
+			int high = Character.digit(hex.charAt(2 * i), 16);
+			int low = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (high == -1 || low == -1) {
+				throw new IllegalArgumentException("Not a hex digit: " + hex);
+			}
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		return bytes;
+	}
+}
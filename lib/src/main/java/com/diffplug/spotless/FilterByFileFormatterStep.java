@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,6 +16,8 @@
 package com.diffplug.spotless;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 import javax.annotation.Nullable;
@@ -45,6 +47,47 @@ final class FilterByFileFormatterStep implements FormatterStep {
 		}
 	}
 
+	/** @see FormatterStepImpl#copyForWorker(FormatterStep) */
+	FilterByFileFormatterStep copyForWorker() {
+		return new FilterByFileFormatterStep(FormatterStepImpl.copyForWorker(delegateStep), filter);
+	}
+
+	/** @see FormatterStepImpl#supportsBatch(FormatterStep) */
+	boolean supportsBatch() throws Exception {
+		return FormatterStepImpl.supportsBatch(delegateStep);
+	}
+
+	/** @see FormatterStepImpl#isNeverUpToDate(FormatterStep) */
+	boolean isNeverUpToDate() {
+		return FormatterStepImpl.isNeverUpToDate(delegateStep);
+	}
+
+	/** @see FormatterStepImpl#emitsUnix(FormatterStep) */
+	boolean emitsUnix() throws Exception {
+		// files which don't pass the filter are returned as-is, and they were already unix
+		return FormatterStepImpl.emitsUnix(delegateStep);
+	}
+
+	/** @see FormatterStepImpl#formatBatch(FormatterStep, List, List) */
+	List<String> formatBatch(List<String> rawUnix, List<File> files) throws Exception {
+		List<String> acceptedUnix = new ArrayList<>();
+		List<File> acceptedFiles = new ArrayList<>();
+		for (int i = 0; i < files.size(); ++i) {
+			if (filter.accept(files.get(i))) {
+				acceptedUnix.add(rawUnix.get(i));
+				acceptedFiles.add(files.get(i));
+			}
+		}
+		List<String> acceptedResults = acceptedFiles.isEmpty() ? acceptedUnix : FormatterStepImpl.formatBatch(delegateStep, acceptedUnix, acceptedFiles);
+		// files which don't pass the filter are unchanged
+		List<String> results = new ArrayList<>(rawUnix.size());
+		int accepted = 0;
+		for (int i = 0; i < files.size(); ++i) {
+			results.add(filter.accept(files.get(i)) ? acceptedResults.get(accepted++) : rawUnix.get(i));
+		}
+		return results;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) {
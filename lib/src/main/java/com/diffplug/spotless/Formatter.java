@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -30,7 +30,9 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import javax.annotation.Nullable;
@@ -44,6 +46,10 @@ public final class Formatter implements Serializable, AutoCloseable {
 	private Path rootDir;
 	private List<FormatterStep> steps;
 	private FormatExceptionPolicy exceptionPolicy;
+	/** Not part of the serialized form or of equality, because it doesn't change the result. */
+	private transient @Nullable StepMetrics metrics;
+	/** The results of the steps which {@link #prefetch(List)} ran before the last batch step, for {@link #compute}. */
+	private transient @Nullable Map<File, Memo> prefetched;
 
 	private Formatter(LineEnding.Policy lineEndingsPolicy, Charset encoding, Path rootDirectory, List<FormatterStep> steps, FormatExceptionPolicy exceptionPolicy) {
 		this.lineEndingsPolicy = Objects.requireNonNull(lineEndingsPolicy, "lineEndingsPolicy");
@@ -143,27 +149,33 @@ public final class Formatter implements Serializable, AutoCloseable {
 		}
 	}
 
-	/** Returns true iff the given file's formatting is up-to-date. */
+	/**
+	 * Returns true iff the given file's formatting is up-to-date.  The line endings and encoding are
+	 * checked in a single pass over the bytes, before any step runs.
+	 */
 	public boolean isClean(File file) throws IOException {
 		Objects.requireNonNull(file);
 
-		String raw = new String(Files.readAllBytes(file.toPath()), encoding);
-		String unix = LineEnding.toUnix(raw);
+		byte[] rawBytes = Files.readAllBytes(file.toPath());
 
 		// check the newlines (we can find these problems without even running the steps)
-		int totalNewLines = (int) unix.codePoints().filter(val -> val == '\n').count();
-		int windowsNewLines = raw.length() - unix.length();
+		LineEndingScanner scan = LineEndingScanner.scan(rawBytes, encoding);
 		if (lineEndingsPolicy.isUnix(file)) {
-			if (windowsNewLines != 0) {
+			if (scan.windowsNewLines != 0) {
 				return false;
 			}
 		} else {
-			if (windowsNewLines != totalNewLines) {
+			if (scan.windowsNewLines != scan.lineFeeds) {
 				return false;
 			}
 		}
+		// if the bytes aren't valid in the encoding, then writing out the result would change them
+		if (!scan.isValidEncoding()) {
+			return false;
+		}
 
 		// check the other formats
+		String unix = scan.unix();
 		String formatted = compute(unix, file);
 
 		// return true iff the formatted string equals the unix one
@@ -222,21 +234,60 @@ public final class Formatter implements Serializable, AutoCloseable {
 	 * is guaranteed to also have unix line endings.
 	 */
 	public String compute(String unix, File file) {
+		return compute(unix, file, memoFor(file));
+	}
+
+	/** Returns a new memo for the given file, seeded with whatever {@link #prefetch(List)} computed for it. */
+	Memo memoFor(File file) {
+		Memo memo = prefetched == null ? null : prefetched.remove(file);
+		return memo == null ? new Memo() : memo;
+	}
+
+	/**
+	 * Same as {@link #compute(String, File)}, except that each step's output is looked up in
+	 * (and recorded into) the given memo, so that calling this repeatedly on the same file only
+	 * runs a step on inputs which it hasn't already seen.
+	 */
+	String compute(String unix, File file, @Nullable Memo memo) {
 		Objects.requireNonNull(unix, "unix");
 		Objects.requireNonNull(file, "file");
 
-		for (FormatterStep step : steps) {
+		for (int i = 0; i < steps.size(); ++i) {
+			FormatterStep step = steps.get(i);
+			long start = metrics == null ? 0 : System.nanoTime();
+			Map<String, String> stepMemo = memo == null ? null : memo.forStep(i);
+			if (stepMemo != null) {
+				String memoized = stepMemo.get(unix);
+				if (memoized != null) {
+					unix = memoized;
+					continue;
+				}
+			}
 			try {
+				String input = unix;
 				String formatted = step.format(unix, file);
+				if (metrics != null) {
+					metrics.record(i, System.nanoTime() - start, input.length(), formatted == null ? input.length() : formatted.length(), false);
+				}
 				if (formatted == null) {
 					// This probably means it was a step that only checks
 					// for errors and doesn't actually have any fixes.
 					// No exception was thrown so we can just continue.
+				} else if (formatted == unix || FormatterStepImpl.emitsUnix(step)) {
+					// The input is unix-only, and so is the output.
+					unix = formatted;
 				} else {
 					// Should already be unix-only, but some steps might misbehave.
 					unix = LineEnding.toUnix(formatted);
 				}
+				if (stepMemo != null) {
+					// only successful results are memoized, so that errors are reported every time
+					stepMemo.put(input, unix);
+				}
 			} catch (Throwable e) {
+				if (metrics != null) {
+					metrics.record(i, System.nanoTime() - start, unix.length(), 0, true);
+				}
 				String relativePath = rootDir.relativize(file.toPath()).toString();
 				exceptionPolicy.handleError(e, step, relativePath);
 			}
@@ -244,6 +295,139 @@ public final class Formatter implements Serializable, AutoCloseable {
 		return unix;
 	}
 
+	/**
+	 * The output of each step for each input it has seen, for the repeated calls to
+	 * {@link #compute(String, File, Memo)} which {@link PaddedCell} makes on a single file.
+	 * Only valid for a single file and a single formatter.
+	 */
+	static final class Memo {
+		private final List<Map<String, String>> byStep = new ArrayList<>();
+
+		Map<String, String> forStep(int step) {
+			while (byStep.size() <= step) {
+				byStep.add(new HashMap<>());
+			}
+			return byStep.get(step);
+		}
+	}
+
+	/**
+	 * Formats the given files up-front for the steps whose {@link FormatterFunc} is a {@link FormatterFunc.Batch},
+	 * so that the subsequent one-file-at-a-time calls (e.g. {@link PaddedCell#calculateDirtyState(Formatter, File)})
+	 * can reuse the results.  The steps before the last batch step are run on each file to get the input for
+	 * the batch, and their results are kept for the regular calls too, so that each of those steps still
+	 * runs only once per file.  Files which fail along the way are left for the regular calls to format
+	 * and report.  This is purely an optimization, and does nothing if no step supports batches.
+	 */
+	public void prefetch(List<File> files) throws IOException {
+		Objects.requireNonNull(files, "files");
+		if (files.size() < 2) {
+			return;
+		}
+		int lastBatchStep = -1;
+		for (int i = 0; i < steps.size(); ++i) {
+			if (supportsBatch(steps.get(i))) {
+				lastBatchStep = i;
+			}
+		}
+		if (lastBatchStep == -1) {
+			return;
+		}
+
+		prefetched = new HashMap<>();
+		List<File> batchFiles = new ArrayList<>(files);
+		List<String> batchUnix = new ArrayList<>(files.size());
+		for (File file : files) {
+			batchUnix.add(LineEnding.toUnix(new String(Files.readAllBytes(file.toPath()), encoding)));
+		}
+		for (int i = 0; i <= lastBatchStep && !batchFiles.isEmpty(); ++i) {
+			FormatterStep step = steps.get(i);
+			List<String> nextUnix = new ArrayList<>(batchUnix.size());
+			List<File> nextFiles = new ArrayList<>(batchFiles.size());
+			if (supportsBatch(step)) {
+				List<String> results;
+				long start = System.nanoTime();
+				try {
+					results = FormatterStepImpl.formatBatch(step, batchUnix, batchFiles);
+				} catch (Exception e) {
+					// the regular calls will report it
+					return;
+				}
+				if (metrics != null) {
+					metrics.recordBatch(i, System.nanoTime() - start, batchFiles.size());
+				}
+				for (int j = 0; j < results.size(); ++j) {
+					if (results.get(j) != null) {
+						nextUnix.add(LineEnding.toUnix(results.get(j)));
+						nextFiles.add(batchFiles.get(j));
+					}
+				}
+			} else {
+				for (int j = 0; j < batchFiles.size(); ++j) {
+					long start = metrics == null ? 0 : System.nanoTime();
+					String input = batchUnix.get(j);
+					File file = batchFiles.get(j);
+					try {
+						String formatted = step.format(input, file);
+						// recorded here rather than by compute, which gets this result from the memo
+						if (metrics != null) {
+							metrics.record(i, System.nanoTime() - start, input.length(), formatted == null ? input.length() : formatted.length(), false);
+						}
+						String output = formatted == null ? input : LineEnding.toUnix(formatted);
+						prefetched.computeIfAbsent(file, unused -> new Memo()).forStep(i).put(input, output);
+						nextUnix.add(output);
+						nextFiles.add(file);
+					} catch (Throwable e) {
+						// the regular calls will report it, and count it as a failure
+					}
+				}
+			}
+			batchUnix = nextUnix;
+			batchFiles = nextFiles;
+		}
+	}
+
+	private static boolean supportsBatch(FormatterStep step) {
+		try {
+			return FormatterStepImpl.supportsBatch(step);
+		} catch (Exception e) {
+			// the step can't even create its FormatterFunc, which the regular calls will report
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a Formatter with the same configuration as this one, whose steps will
+	 * lazily create their own {@link FormatterFunc} rather than sharing the ones
+	 * created by this Formatter.  Use one copy per thread to format files in parallel,
+	 * and close each copy when its thread is done.
+	 */
+	public Formatter copyForWorker() {
+		List<FormatterStep> workerSteps = new ArrayList<>(steps.size());
+		for (FormatterStep step : steps) {
+			workerSteps.add(FormatterStepImpl.copyForWorker(step));
+		}
+		Formatter copy = new Formatter(lineEndingsPolicy, encoding, rootDir, workerSteps, exceptionPolicy);
+		copy.metrics = metrics;
+		return copy;
+	}
+
+	/**
+	 * Returns a Formatter which shares this one's steps (so only one of them needs to be closed), and
+	 * which records how long each step takes into the given metrics, as do its {@link #copyForWorker()}s.
+	 * Memoized steps (see {@link PaddedCell}) aren't run, and so they aren't recorded either, which
+	 * includes the steps that {@link #prefetch(List)} already ran (and recorded) for a file.
+	 */
+	public Formatter withStepMetrics(StepMetrics metrics) {
+		Objects.requireNonNull(metrics, "metrics");
+		if (metrics.size() != steps.size()) {
+			throw new IllegalArgumentException("Metrics are for " + metrics.size() + " steps, but this formatter has " + steps.size());
+		}
+		Formatter copy = new Formatter(lineEndingsPolicy, encoding, rootDir, steps, exceptionPolicy);
+		copy.metrics = metrics;
+		return copy;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,6 +16,7 @@
 package com.diffplug.spotless;
 
 import java.io.File;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -133,6 +134,29 @@ public interface FormatterFunc {
 		}
 	}
 
+	/**
+	 * A {@link FormatterFunc} which can also format many inputs in a single call, e.g. with one
+	 * request to an external server rather than one per file.  This is purely an optimization:
+	 * {@link Formatter#prefetch(List)} uses it to format a batch of files up-front, and the results
+	 * are then handed back by the regular one-file-at-a-time calls iff their input matches.
+	 */
+	interface Batch extends FormatterFunc {
+		/**
+		 * Formats each of the given inputs, and returns the results in the same order.  A null result
+		 * means that the input couldn't be formatted as part of the batch, and it will be formatted
+		 * (and any error reported) by the regular `apply` instead.
+		 */
+		List<String> applyBatch(List<String> unix, List<File> files) throws Exception;
+	}
+
+	/**
+	 * A {@link FormatterFunc} which never introduces a `\r`, so its output is guaranteed to have unix
+	 * newlines whenever its input does.  This is purely an optimization: {@link Formatter#compute(String, File)}
+	 * skips the scan which converts each step's output to unix newlines.  Since it doesn't add any methods,
+	 * a lambda or method reference can be cast to it, e.g. `(FormatterFunc.UnixOutput) MyStep::format`.
+	 */
+	interface UnixOutput extends FormatterFunc {}
+
 	/**
 	 * Ideally, formatters don't need the underlying file. But in case they do, they should only use it's path,
 	 * and should never read the content inside the file, because that breaks the `Function<String, String>` composition
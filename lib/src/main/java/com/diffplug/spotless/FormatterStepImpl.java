@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,9 @@ package com.diffplug.spotless;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 
@@ -61,6 +64,8 @@ abstract class FormatterStepImpl<State extends Serializable> extends Strict<Stat
 
 		final transient ThrowingEx.Function<State, FormatterFunc> stateToFormatter;
 		transient FormatterFunc formatter; // initialized lazily
+		transient SpotlessCache.Lease classLoaders; // keeps the formatter's classloaders open
+		transient Map<File, Prefetched> prefetched; // results of the last formatBatch
 
 		Standard(String name, ThrowingEx.Supplier<State> stateSupplier, ThrowingEx.Function<State, FormatterFunc> stateToFormatter) {
 			super(name, stateSupplier);
@@ -72,17 +77,80 @@ abstract class FormatterStepImpl<State extends Serializable> extends Strict<Stat
 			Objects.requireNonNull(state, "state");
 			Objects.requireNonNull(rawUnix, "rawUnix");
 			Objects.requireNonNull(file, "file");
+			if (prefetched != null) {
+				Prefetched result = prefetched.remove(file);
+				if (result != null && result.input.equals(rawUnix)) {
+					return result.output;
+				}
+			}
+			return formatter().apply(rawUnix, file);
+		}
+
+		private FormatterFunc formatter() throws Exception {
 			if (formatter == null) {
-				formatter = stateToFormatter.apply(state());
+				State state = state();
+				SpotlessCache.Lease lease = new SpotlessCache.Lease();
+				try {
+					formatter = lease.track(() -> stateToFormatter.apply(state));
+				} catch (Exception | Error e) {
+					lease.close();
+					throw e;
+				}
+				classLoaders = lease;
 			}
-			return formatter.apply(rawUnix, file);
+			return formatter;
+		}
+
+		boolean supportsBatch() throws Exception {
+			return formatter() instanceof FormatterFunc.Batch;
+		}
+
+		boolean emitsUnix() throws Exception {
+			return formatter() instanceof FormatterFunc.UnixOutput;
+		}
+
+		/** Formats the inputs with a single {@link FormatterFunc.Batch#applyBatch}, and remembers the results for {@link #format}. */
+		List<String> formatBatch(List<String> rawUnix, List<File> files) throws Exception {
+			prefetched = null;
+			List<String> results = ((FormatterFunc.Batch) formatter()).applyBatch(rawUnix, files);
+			if (results.size() != rawUnix.size()) {
+				throw new IllegalStateException("Step '" + name + "' returned " + results.size() + " results for a batch of " + rawUnix.size());
+			}
+			prefetched = new HashMap<>();
+			for (int i = 0; i < results.size(); ++i) {
+				if (results.get(i) != null) {
+					prefetched.put(files.get(i), new Prefetched(rawUnix.get(i), results.get(i)));
+				}
+			}
+			return results;
 		}
 
 		void cleanupFormatterFunc() {
+			prefetched = null;
 			if (formatter instanceof FormatterFunc.Closeable) {
 				((FormatterFunc.Closeable) formatter).close();
-				formatter = null;
 			}
+			// the classloaders may be closed now, so a later call needs a new formatter
+			formatter = null;
+			if (classLoaders != null) {
+				classLoaders.close();
+				classLoaders = null;
+			}
+		}
+
+		/** Returns a step which shares this step's state, but which will lazily create its own FormatterFunc. */
+		Standard<State> copyForWorker() {
+			return new Standard<>(name, this::state, stateToFormatter);
+		}
+	}
+
+	private static final class Prefetched {
+		final String input;
+		final String output;
+
+		Prefetched(String input, String output) {
+			this.input = input;
+			this.output = output;
 		}
 	}
 
@@ -110,6 +178,79 @@ abstract class FormatterStepImpl<State extends Serializable> extends Strict<Stat
 			}
 			return formatter.apply(rawUnix, file);
 		}
+
+		/** Returns a step which will lazily create its own FormatterFunc from the same supplier. */
+		NeverUpToDate copyForWorker() {
+			return new NeverUpToDate(name, formatterSupplier);
+		}
+	}
+
+	/**
+	 * Returns a step which formats identically to the given step, but which does not share
+	 * its lazily-created FormatterFunc.  Steps which are not implemented by spotless-lib are
+	 * returned as-is, and must therefore be safe to call from multiple threads.
+	 */
+	@SuppressWarnings("rawtypes")
+	static FormatterStep copyForWorker(FormatterStep step) {
+		if (step instanceof Standard) {
+			return ((Standard) step).copyForWorker();
+		} else if (step instanceof NeverUpToDate) {
+			return ((NeverUpToDate) step).copyForWorker();
+		} else if (step instanceof FilterByFileFormatterStep) {
+			return ((FilterByFileFormatterStep) step).copyForWorker();
+		} else {
+			return step;
+		}
+	}
+
+	/** Returns true if the given step can format many files in one call, see {@link FormatterFunc.Batch}. */
+	@SuppressWarnings("rawtypes")
+	static boolean supportsBatch(FormatterStep step) throws Exception {
+		if (step instanceof Standard) {
+			return ((Standard) step).supportsBatch();
+		} else if (step instanceof FilterByFileFormatterStep) {
+			return ((FilterByFileFormatterStep) step).supportsBatch();
+		} else {
+			return false;
+		}
+	}
+
+	/** Returns true if the given step's state is random, so that it never equals (or serializes like) another instance. */
+	static boolean isNeverUpToDate(FormatterStep step) {
+		if (step instanceof NeverUpToDate) {
+			return true;
+		} else if (step instanceof FilterByFileFormatterStep) {
+			return ((FilterByFileFormatterStep) step).isNeverUpToDate();
+		} else {
+			return false;
+		}
+	}
+
+	/** Returns true if the given step's output is guaranteed to have unix newlines, see {@link FormatterFunc.UnixOutput}. */
+	@SuppressWarnings("rawtypes")
+	static boolean emitsUnix(FormatterStep step) throws Exception {
+		if (step instanceof Standard) {
+			return ((Standard) step).emitsUnix();
+		} else if (step instanceof FilterByFileFormatterStep) {
+			return ((FilterByFileFormatterStep) step).emitsUnix();
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Formats the given inputs in one call to a step which {@link #supportsBatch(FormatterStep)}, and
+	 * remembers the results for its subsequent calls to {@link FormatterStep#format(String, File)}.
+	 * Returns the results in the same order, with null for inputs which weren't formatted.
+	 */
+	static List<String> formatBatch(FormatterStep step, List<String> rawUnix, List<File> files) throws Exception {
+		if (step instanceof Standard) {
+			return ((Standard<?>) step).formatBatch(rawUnix, files);
+		} else if (step instanceof FilterByFileFormatterStep) {
+			return ((FilterByFileFormatterStep) step).formatBatch(rawUnix, files);
+		} else {
+			throw new IllegalArgumentException("Step '" + step.getName() + "' can't format in batches");
+		}
 	}
 
 	/** A dummy SENTINEL file. */
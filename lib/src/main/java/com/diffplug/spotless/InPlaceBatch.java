@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Formats many inputs with a single invocation of an external formatter which rewrites files
+ * in-place (e.g. `clang-format -i a.cpp b.cpp`), to avoid paying for a new process per file.
+ *
+ * Each input is written to `<tempDir>/<index>/<fileName>`, so that the names (and the extensions
+ * which formatters use to pick a language) are preserved, the process is run once on all of them,
+ * and the results are read back.  It is meant for implementing {@link FormatterFunc.Batch}.
+ */
+public final class InPlaceBatch {
+	private InPlaceBatch() {}
+
+	/**
+	 * Runs the external formatter on the given files, which it should rewrite in-place.  Anything else
+	 * the formatter writes (e.g. its cache) should go in `tempDir`, which is deleted afterwards.
+	 */
+	@FunctionalInterface
+	public interface Exec {
+		ProcessRunner.Result exec(Path tempDir, List<String> absolutePaths) throws IOException, InterruptedException;
+	}
+
+	/**
+	 * Returns the formatted content of each input, in the same order.  If the process fails, then
+	 * every result is null, so that each file is formatted (and its error reported) on its own.
+	 *
+	 * The `sharedFiles` are copied into the root of the temp dir, which is where formatters that search
+	 * the parents of each file for their config (e.g. `.clang-format` or `pyproject.toml`) will find them.
+	 */
+	public static List<String> format(List<String> unix, List<String> fileNames, List<File> sharedFiles, Exec exec) throws IOException, InterruptedException {
+		Objects.requireNonNull(unix, "unix");
+		Objects.requireNonNull(fileNames, "fileNames");
+		Objects.requireNonNull(sharedFiles, "sharedFiles");
+		Objects.requireNonNull(exec, "exec");
+		if (unix.size() != fileNames.size()) {
+			throw new IllegalArgumentException("Got " + unix.size() + " inputs but " + fileNames.size() + " file names");
+		}
+		Path tempDir = Files.createTempDirectory("spotless-batch");
+		try {
+			for (File sharedFile : sharedFiles) {
+				Files.copy(sharedFile.toPath(), tempDir.resolve(sharedFile.getName()));
+			}
+			List<Path> paths = new ArrayList<>(unix.size());
+			List<String> absolutePaths = new ArrayList<>(unix.size());
+			for (int i = 0; i < unix.size(); ++i) {
+				Path dir = Files.createDirectory(tempDir.resolve(Integer.toString(i)));
+				Path path = dir.resolve(fileNames.get(i));
+				Files.write(path, unix.get(i).getBytes(UTF_8));
+				paths.add(path);
+				absolutePaths.add(path.toAbsolutePath().toString());
+			}
+			ProcessRunner.Result result = exec.exec(tempDir, absolutePaths);
+			if (result.exitNotZero()) {
+				return Collections.nCopies(unix.size(), null);
+			}
+			List<String> formatted = new ArrayList<>(unix.size());
+			for (Path path : paths) {
+				formatted.add(new String(Files.readAllBytes(path), UTF_8));
+			}
+			return formatted;
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	/**
+	 * Returns the first of the given files which exists in `start` or one of its parents, which is
+	 * useful for finding the config file that a formatter would have found from a different directory.
+	 */
+	public static @Nullable File findUpwards(File start, String... fileNames) {
+		for (File dir = start.getAbsoluteFile(); dir != null; dir = dir.getParentFile()) {
+			for (String fileName : fileNames) {
+				File candidate = new File(dir, fileName);
+				if (candidate.exists()) {
+					return candidate;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static void deleteRecursively(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path path : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.NoSuchElementException;
@@ -28,6 +29,8 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
 /**
  * Grabs a jar and its dependencies from maven,
  * and makes it easy to access the collection in
@@ -101,6 +104,17 @@ public final class JarState implements Serializable {
 		return SpotlessCache.instance().classloader(key, this);
 	}
 
+	/**
+	 * Returns a new classloader containing only the jars in this JarState, with the same
+	 * `org.slf4j` passthrough as {@link #getClassLoader()}.
+	 * <br/>
+	 * The classloader is not cached, so the caller is responsible for closing it.
+	 */
+	@SuppressFBWarnings("DP_CREATE_CLASSLOADER_INSIDE_DO_PRIVILEGED")
+	public URLClassLoader createClassLoader() {
+		return new FeatureClassLoader(jarUrls(), getClass().getClassLoader());
+	}
+
 	/** Returns unmodifiable view on sorted Maven coordinates */
 	public Set<String> getMavenCoordinates() {
 		return Collections.unmodifiableSet(mavenCoordinates);
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -141,6 +141,9 @@ public enum LineEnding {
 		if (firstNewline == -1) {
 			// fastest way to detect if a string is already unix-only
 			return input;
+		} else if (input.indexOf('\r') == -1) {
+			// no copy (and on Java 8, no regex) if there's nothing to replace
+			return input;
 		} else {
 			return input.replace("\r", "");
 		}
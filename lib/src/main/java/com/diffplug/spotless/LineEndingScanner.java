@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * Counts the carriage returns and line feeds of a file and produces its unix view
+ * ({@link LineEnding#toUnix(String)}) in a single pass.
+ *
+ * For encodings where `\r` and `\n` are always single bytes which can't be part of another
+ * character (e.g. UTF-8 and the ISO-8859 family), the scan happens on the raw bytes, so that a file
+ * whose line endings are wrong can be rejected before it is even decoded.  Other encodings
+ * (e.g. UTF-16) are decoded first and scanned as chars.
+ */
+final class LineEndingScanner {
+	final int lineFeeds;
+	/** The number of `\r` which {@link LineEnding#toUnix(String)} would remove. */
+	final int windowsNewLines;
+	private final byte[] raw;
+	private final Charset encoding;
+	private final @Nullable byte[] unixBytes;
+	private @Nullable String unix;
+
+	private LineEndingScanner(byte[] raw, Charset encoding, int lineFeeds, int windowsNewLines, @Nullable byte[] unixBytes, @Nullable String unix) {
+		this.raw = raw;
+		this.encoding = encoding;
+		this.lineFeeds = lineFeeds;
+		this.windowsNewLines = windowsNewLines;
+		this.unixBytes = unixBytes;
+		this.unix = unix;
+	}
+
+	static LineEndingScanner scan(byte[] raw, Charset encoding) {
+		if (isAsciiCompatible(encoding)) {
+			int lineFeeds = 0;
+			int carriageReturns = 0;
+			for (byte b : raw) {
+				if (b == '\n') {
+					++lineFeeds;
+				} else if (b == '\r') {
+					++carriageReturns;
+				}
+			}
+			if (lineFeeds == 0 || carriageReturns == 0) {
+				// like LineEnding.toUnix, which leaves '\r' alone if there are no '\n'
+				return new LineEndingScanner(raw, encoding, lineFeeds, 0, raw, null);
+			}
+			byte[] unixBytes = new byte[raw.length - carriageReturns];
+			int i = 0;
+			for (byte b : raw) {
+				if (b != '\r') {
+					unixBytes[i++] = b;
+				}
+			}
+			return new LineEndingScanner(raw, encoding, lineFeeds, carriageReturns, unixBytes, null);
+		} else {
+			String decoded = new String(raw, encoding);
+			int lineFeeds = 0;
+			int carriageReturns = 0;
+			for (int i = 0; i < decoded.length(); ++i) {
+				char c = decoded.charAt(i);
+				if (c == '\n') {
+					++lineFeeds;
+				} else if (c == '\r') {
+					++carriageReturns;
+				}
+			}
+			int windowsNewLines = lineFeeds == 0 ? 0 : carriageReturns;
+			return new LineEndingScanner(raw, encoding, lineFeeds, windowsNewLines, null, windowsNewLines == 0 ? decoded : LineEnding.toUnix(decoded));
+		}
+	}
+
+	/** Returns the content with unix line endings, decoding malformed input the same way as `new String(bytes, encoding)`. */
+	String unix() {
+		if (unix == null) {
+			unix = new String(unixBytes, encoding);
+		}
+		return unix;
+	}
+
+	/** Returns true if the raw bytes are valid in the encoding, so that decoding and encoding them again doesn't change them. */
+	boolean isValidEncoding() {
+		if (unix().indexOf(EncodingErrorMsg.UNREPRESENTABLE) == -1) {
+			return true;
+		}
+		// sometimes the '\ufffd' is really in the file, so we have to decode strictly to be sure
+		try {
+			encoding.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT)
+					.decode(ByteBuffer.wrap(raw));
+			return true;
+		} catch (CharacterCodingException e) {
+			return false;
+		}
+	}
+
+	private static final byte[] CR_LF = {'\r', '\n'};
+
+	/** True if `\r` and `\n` are always encoded as those single bytes, and those bytes are never part of another character. */
+	private static boolean isAsciiCompatible(Charset encoding) {
+		if (encoding.equals(StandardCharsets.UTF_8) || encoding.equals(StandardCharsets.ISO_8859_1) || encoding.equals(StandardCharsets.US_ASCII)) {
+			return true;
+		}
+		return encoding.canEncode() && encoding.newEncoder().maxBytesPerChar() == 1.0f && Arrays.equals("\r\n".getBytes(encoding), CR_LF);
+	}
+}
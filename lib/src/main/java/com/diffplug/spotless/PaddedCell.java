@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -89,7 +89,7 @@ public final class PaddedCell {
 		byte[] rawBytes = ThrowingEx.get(() -> Files.readAllBytes(file.toPath()));
 		String raw = new String(rawBytes, formatter.getEncoding());
 		String original = LineEnding.toUnix(raw);
-		return check(formatter, file, original, MAX_CYCLE);
+		return check(formatter, file, original, MAX_CYCLE, formatter.memoFor(file));
 	}
 
 	public static PaddedCell check(Formatter formatter, File file, String originalUnix) {
@@ -97,21 +97,26 @@ public final class PaddedCell {
 				Objects.requireNonNull(formatter, "formatter"),
 				Objects.requireNonNull(file, "file"),
 				Objects.requireNonNull(originalUnix, "originalUnix"),
-				MAX_CYCLE);
+				MAX_CYCLE,
+				formatter.memoFor(file));
 	}
 
 	private static final int MAX_CYCLE = 10;
 
-	private static PaddedCell check(Formatter formatter, File file, String original, int maxLength) {
+	/**
+	 * Every pass shares the given memo, so a step is only run once on each distinct input, and
+	 * the passes which {@link #calculateDirtyState} has already made are just lookups.
+	 */
+	private static PaddedCell check(Formatter formatter, File file, String original, int maxLength, Formatter.Memo memo) {
 		if (maxLength < 2) {
 			throw new IllegalArgumentException("maxLength must be at least 2");
 		}
-		String appliedOnce = formatter.compute(original, file);
+		String appliedOnce = formatter.compute(original, file, memo);
 		if (appliedOnce.equals(original)) {
 			return Type.CONVERGE.create(file, Collections.singletonList(appliedOnce));
 		}
 
-		String appliedTwice = formatter.compute(appliedOnce, file);
+		String appliedTwice = formatter.compute(appliedOnce, file, memo);
 		if (appliedOnce.equals(appliedTwice)) {
 			return Type.CONVERGE.create(file, Collections.singletonList(appliedOnce));
 		}
@@ -121,7 +126,7 @@ public final class PaddedCell {
 		appliedN.add(appliedTwice);
 		String input = appliedTwice;
 		while (appliedN.size() < maxLength) {
-			String output = formatter.compute(input, file);
+			String output = formatter.compute(input, file, memo);
 			if (output.equals(input)) {
 				return Type.CONVERGE.create(file, appliedN);
 			} else {
@@ -197,8 +202,11 @@ public final class PaddedCell {
 		}
 		String rawUnix = LineEnding.toUnix(raw);
 
+		// the padded check below starts over from rawUnix, so it reuses the work done here
+		Formatter.Memo memo = formatter.memoFor(file);
+
 		// enforce the format
-		String formattedUnix = formatter.compute(rawUnix, file);
+		String formattedUnix = formatter.compute(rawUnix, file, memo);
 		// convert the line endings if necessary
 		String formatted = formatter.computeLineEndings(formattedUnix, file);
 
@@ -209,13 +217,13 @@ public final class PaddedCell {
 		}
 
 		// F(input) != input, so we'll do a padded check
-		String doubleFormattedUnix = formatter.compute(formattedUnix, file);
+		String doubleFormattedUnix = formatter.compute(formattedUnix, file, memo);
 		if (doubleFormattedUnix.equals(formattedUnix)) {
 			// most dirty files are idempotent-dirty, so this is a quick-short circuit for that common case
 			return new DirtyState(formattedBytes);
 		}
 
-		PaddedCell cell = PaddedCell.check(formatter, file, rawUnix);
+		PaddedCell cell = PaddedCell.check(formatter, file, rawUnix, MAX_CYCLE, memo);
 		if (!cell.isResolvable()) {
 			return didNotConverge;
 		}
@@ -242,7 +250,7 @@ public final class PaddedCell {
 	public static class DirtyState {
 		private final byte[] canonicalBytes;
 
-		private DirtyState(byte[] canonicalBytes) {
+		DirtyState(byte[] canonicalBytes) {
 			this.canonicalBytes = canonicalBytes;
 		}
 
@@ -254,7 +262,7 @@ public final class PaddedCell {
 			return this == didNotConverge;
 		}
 
-		private byte[] canonicalBytes() {
+		byte[] canonicalBytes() {
 			if (canonicalBytes == null) {
 				throw new IllegalStateException("First make sure that `!isClean()` and `!didNotConverge()`");
 			}
@@ -275,6 +283,11 @@ public final class PaddedCell {
 		return isClean;
 	}
 
+	/** Returns the DirtyState which corresponds to `didNotConverge()`. */
+	static DirtyState didNotConverge() {
+		return didNotConverge;
+	}
+
 	private static final DirtyState didNotConverge = new DirtyState(null);
 	private static final DirtyState isClean = new DirtyState(null);
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 DiffPlug
+ * Copyright 2020-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -21,13 +21,18 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.function.BiConsumer;
 
+import javax.annotation.Nullable;
+
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 /**
@@ -35,18 +40,57 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  * If you don't read stdout and stderr on their own threads, you risk
  * deadlock on a clogged buffer.
  *
- * ProcessRunner allocates two threads specifically for the purpose of
+ * ProcessRunner keeps a pool of threads specifically for the purpose of
  * flushing stdout and stderr to buffers.  These threads will remain alive until
  * the ProcessRunner is closed, so it is especially useful for repeated
  * calls to an external process.
+ *
+ * A ProcessRunner is thread-safe, and can optionally limit how many child
+ * processes it runs at once, with the other calls waiting for a free slot.
+ * Formatters which shell out for each file should use {@link #shared()}, so
+ * that parallel workers share a single limit.
  */
 public class ProcessRunner implements AutoCloseable {
-	private final ExecutorService threadStdOut = Executors.newSingleThreadExecutor();
-	private final ExecutorService threadStdErr = Executors.newSingleThreadExecutor();
-	private final ByteArrayOutputStream bufStdOut = new ByteArrayOutputStream();
-	private final ByteArrayOutputStream bufStdErr = new ByteArrayOutputStream();
+	/** System property for the maximum number of processes run at once by {@link #shared()}, defaults to the number of processors. */
+	public static final String MAX_PROCESSES_PROPERTY = "spotless.process.maxInFlight";
+
+	private final ExecutorService drainers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "spotless-process-drainer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final @Nullable Semaphore inFlight;
+	private final boolean isShared;
+
+	public ProcessRunner() {
+		this(Integer.MAX_VALUE, false);
+	}
 
-	public ProcessRunner() {}
+	/** Creates a ProcessRunner which runs at most the given number of processes at once. */
+	public ProcessRunner(int maxProcesses) {
+		this(maxProcesses, false);
+	}
+
+	private ProcessRunner(int maxProcesses, boolean isShared) {
+		if (maxProcesses <= 0) {
+			throw new IllegalArgumentException("maxProcesses must be positive, was " + maxProcesses);
+		}
+		this.inFlight = maxProcesses == Integer.MAX_VALUE ? null : new Semaphore(maxProcesses, true);
+		this.isShared = isShared;
+	}
+
+	/**
+	 * Returns the ProcessRunner which is shared by the whole JVM, whose limit is set by the
+	 * {@link #MAX_PROCESSES_PROPERTY} system property.  Closing it has no effect.
+	 */
+	public static ProcessRunner shared() {
+		return SharedHolder.INSTANCE;
+	}
+
+	private static class SharedHolder {
+		static final ProcessRunner INSTANCE = new ProcessRunner(
+				Integer.getInteger(MAX_PROCESSES_PROPERTY, Runtime.getRuntime().availableProcessors()), true);
+	}
 
 	/** Executes the given shell command (using `cmd` on windows and `sh` on unix). */
 	public Result shell(String cmd) throws IOException, InterruptedException {
@@ -81,20 +125,35 @@ public class ProcessRunner implements AutoCloseable {
 
 	/** Creates a process with the given arguments, the given byte array is written to stdin immediately. */
 	public Result exec(byte[] stdin, List<String> args) throws IOException, InterruptedException {
-		ProcessBuilder builder = new ProcessBuilder(args);
-		Process process = builder.start();
-		Future<byte[]> outputFut = threadStdOut.submit(() -> drainToBytes(process.getInputStream(), bufStdOut));
-		Future<byte[]> errorFut = threadStdErr.submit(() -> drainToBytes(process.getErrorStream(), bufStdErr));
-		// write stdin
-		process.getOutputStream().write(stdin);
-		process.getOutputStream().close();
-		// wait for the process to finish
-		int exitCode = process.waitFor();
+		return exec(stdin, args, Collections.emptyMap());
+	}
+
+	/** Creates a process with the given arguments and extra environment variables, the given byte array is written to stdin immediately. */
+	public Result exec(byte[] stdin, List<String> args, Map<String, String> environment) throws IOException, InterruptedException {
+		if (inFlight != null) {
+			inFlight.acquire();
+		}
 		try {
-			// collect the output
-			return new Result(args, exitCode, outputFut.get(), errorFut.get());
-		} catch (ExecutionException e) {
-			throw ThrowingEx.asRuntime(e);
+			ProcessBuilder builder = new ProcessBuilder(args);
+			builder.environment().putAll(environment);
+			Process process = builder.start();
+			Future<byte[]> outputFut = drainers.submit(() -> drainToBytes(process.getInputStream()));
+			Future<byte[]> errorFut = drainers.submit(() -> drainToBytes(process.getErrorStream()));
+			// write stdin
+			process.getOutputStream().write(stdin);
+			process.getOutputStream().close();
+			// wait for the process to finish
+			int exitCode = process.waitFor();
+			try {
+				// collect the output
+				return new Result(args, exitCode, outputFut.get(), errorFut.get());
+			} catch (ExecutionException e) {
+				throw ThrowingEx.asRuntime(e);
+			}
+		} finally {
+			if (inFlight != null) {
+				inFlight.release();
+			}
 		}
 	}
 
@@ -106,16 +165,17 @@ public class ProcessRunner implements AutoCloseable {
 		}
 	}
 
-	private static byte[] drainToBytes(InputStream input, ByteArrayOutputStream buffer) throws IOException {
-		buffer.reset();
+	private static byte[] drainToBytes(InputStream input) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 		drain(input, buffer);
 		return buffer.toByteArray();
 	}
 
 	@Override
 	public void close() {
-		threadStdOut.shutdown();
-		threadStdErr.shutdown();
+		if (!isShared) {
+			drainers.shutdown();
+		}
 	}
 
 	@SuppressFBWarnings({"EI_EXPOSE_REP", "EI_EXPOSE_REP2"})
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,13 +17,18 @@ package com.diffplug.spotless;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.Nullable;
 
@@ -32,6 +37,16 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 /**
  * Spotless' global cache. {@link SpotlessCache#clear()} should be called
  * when Spotless is no longer in use to release any resources it has grabbed.
+ * Classloaders which are idle for too long, or which are the least-recently-used
+ * when there are too many, are evicted automatically.  A `FormatterFunc` which is
+ * still in use may need to load classes from an evicted classloader later on, so
+ * it is only closed once every {@link Lease} which looked it up has been closed.
+ * A classloader which was ever looked up outside of a lease is never closed on
+ * eviction, and is reclaimed by the garbage collector instead.
+ *
+ * Looking up an existing classloader never blocks, and different classloaders
+ * can be created concurrently.  Keys are assumed to be immutable, so that their
+ * serialized form can be memoized.
  */
 public final class SpotlessCache {
 	/** Allows comparing keys based on their serialization. */
@@ -57,18 +72,318 @@ public final class SpotlessCache {
 		}
 	}
 
-	final Map<SerializedKey, URLClassLoader> cache = new HashMap<>();
+	/**
+	 * Classloaders by key.  A classloader which has not been looked up for `maxIdleNanos`,
+	 * or which is the least-recently-used when there are more than `maxSize`, is evicted.
+	 */
+	final ConcurrentHashMap<SerializedKey, Entry> cache = new ConcurrentHashMap<>();
 
-	@SuppressFBWarnings("DP_CREATE_CLASSLOADER_INSIDE_DO_PRIVILEGED")
-	synchronized ClassLoader classloader(JarState state) {
+	static final class Entry {
+		final URLClassLoader classLoader;
+		volatile long lastAccessNanos;
+		/** Guarded by this. */
+		private int leases;
+		/** Guarded by this. */
+		private boolean untracked, evicted, closed;
+
+		Entry(URLClassLoader classLoader) {
+			this.classLoader = classLoader;
+		}
+
+		/** Returns false if the classloader was already closed, in which case it must be looked up again. */
+		synchronized boolean use(@Nullable Lease lease) {
+			if (closed) {
+				return false;
+			}
+			if (lease == null) {
+				untracked = true;
+			} else if (lease.add(this)) {
+				++leases;
+			}
+			return true;
+		}
+
+		synchronized void release() {
+			--leases;
+			closeIfUnused();
+		}
+
+		synchronized void evict() {
+			evicted = true;
+			closeIfUnused();
+		}
+
+		private void closeIfUnused() {
+			if (evicted && leases == 0 && !untracked && !closed) {
+				closed = true;
+				try {
+					classLoader.close();
+				} catch (IOException e) {
+					// nothing is loaded from it anymore, so there is nothing to be done
+				}
+			}
+		}
+
+		/** Closes the classloader whether or not it is in use, for {@link SpotlessCache#clear()}. */
+		synchronized void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				classLoader.close();
+			}
+		}
+	}
+
+	/**
+	 * Keeps the classloaders which are looked up while it is {@link #track tracking} open, even if they are evicted,
+	 * until it is closed.  Open a lease for each `FormatterFunc` (or other user of a classloader) which may load
+	 * classes later on, and close it once that user is done.
+	 */
+	public static final class Lease implements AutoCloseable {
+		private static final ThreadLocal<Lease> current = new ThreadLocal<>();
+
+		/** Guarded by this. */
+		private final List<Entry> entries = new ArrayList<>();
+		/** Guarded by this. */
+		private boolean closed;
+
+		/** Returns the result of the given function, recording the classloaders which it looks up on this thread. */
+		public <T> T track(ThrowingEx.Supplier<T> function) throws Exception {
+			Lease previous = current.get();
+			current.set(this);
+			try {
+				return function.get();
+			} finally {
+				if (previous == null) {
+					current.remove();
+				} else {
+					current.set(previous);
+				}
+			}
+		}
+
+		private synchronized boolean add(Entry entry) {
+			if (closed) {
+				throw new IllegalStateException("Lease was already closed");
+			}
+			if (entries.contains(entry)) {
+				return false;
+			}
+			entries.add(entry);
+			return true;
+		}
+
+		/** Releases the classloaders, which closes the ones which were evicted and aren't used by other leases. */
+		@Override
+		public void close() {
+			List<Entry> toRelease;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				toRelease = new ArrayList<>(entries);
+				entries.clear();
+			}
+			for (Entry entry : toRelease) {
+				entry.release();
+			}
+		}
+	}
+
+	/** How often to look for idle classloaders when the cache is not over its size limit. */
+	private static final long IDLE_CHECK_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	private final int maxSize;
+	private final long maxIdleNanos;
+	private final SerializedKeyMemo serializedKeys = new SerializedKeyMemo();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private volatile long nextIdleCheckNanos;
+
+	SpotlessCache(int maxSize, long maxIdleNanos) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be at least 1, was " + maxSize);
+		}
+		this.maxSize = maxSize;
+		this.maxIdleNanos = maxIdleNanos;
+		this.nextIdleCheckNanos = System.nanoTime() + IDLE_CHECK_INTERVAL_NANOS;
+	}
+
+	ClassLoader classloader(JarState state) {
 		return classloader(state, state);
 	}
 
 	@SuppressFBWarnings("DP_CREATE_CLASSLOADER_INSIDE_DO_PRIVILEGED")
-	synchronized ClassLoader classloader(Serializable key, JarState state) {
-		SerializedKey serializedKey = new SerializedKey(key);
-		return cache
-				.computeIfAbsent(serializedKey, k -> new FeatureClassLoader(state.jarUrls(), this.getClass().getClassLoader()));
+	ClassLoader classloader(Serializable key, JarState state) {
+		SerializedKey serializedKey = serializedKeys.get(key);
+		Lease lease = Lease.current.get();
+		Entry entry;
+		do {
+			entry = cache.get(serializedKey);
+			if (entry != null) {
+				hits.increment();
+			} else {
+				// only blocks other lookups of the same key while the classloader is created
+				entry = cache.computeIfAbsent(serializedKey, unused -> {
+					misses.increment();
+					return new Entry(new FeatureClassLoader(state.jarUrls(), this.getClass().getClassLoader()));
+				});
+			}
+			// evicted and closed since we got it, so it is no longer in the cache either
+		} while (!entry.use(lease));
+		long now = System.nanoTime();
+		entry.lastAccessNanos = now;
+		if (cache.size() > maxSize || now - nextIdleCheckNanos > 0) {
+			evict(now);
+		}
+		return entry.classLoader;
+	}
+
+	/** Removes the least-recently-used classloaders which are over the size limit or idle for too long. */
+	private synchronized void evict(long now) {
+		nextIdleCheckNanos = now + IDLE_CHECK_INTERVAL_NANOS;
+		// snapshot the access times, because they keep changing while we sort
+		List<Candidate> leastRecentlyUsed = new ArrayList<>(cache.size());
+		for (Map.Entry<SerializedKey, Entry> entry : cache.entrySet()) {
+			leastRecentlyUsed.add(new Candidate(entry.getKey(), entry.getValue()));
+		}
+		leastRecentlyUsed.sort((a, b) -> Long.compare(a.lastAccessNanos - now, b.lastAccessNanos - now));
+		int size = leastRecentlyUsed.size();
+		for (Candidate candidate : leastRecentlyUsed) {
+			boolean overSize = size > maxSize;
+			boolean idle = now - candidate.lastAccessNanos > maxIdleNanos;
+			if (!overSize && !idle) {
+				// everything after this was used more recently
+				break;
+			}
+			if (cache.remove(candidate.key, candidate.entry)) {
+				evictions.increment();
+				// closed only if no lease uses it, see the class comment
+				candidate.entry.evict();
+			}
+			--size;
+		}
+	}
+
+	private static final class Candidate {
+		final SerializedKey key;
+		final Entry entry;
+		final long lastAccessNanos;
+
+		Candidate(SerializedKey key, Entry entry) {
+			this.key = key;
+			this.entry = entry;
+			this.lastAccessNanos = entry.lastAccessNanos;
+		}
+	}
+
+	/**
+	 * Memoizes the serialized form of keys by identity, so that repeated lookups with the same
+	 * key (e.g. every `loadClass` of an Eclipse-based step) don't have to serialize it again.
+	 * Keys are only weakly referenced, so that the memo doesn't keep them alive.
+	 */
+	private static final class SerializedKeyMemo {
+		private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+		private final ConcurrentHashMap<IdentityKey, SerializedKey> memo = new ConcurrentHashMap<>();
+
+		SerializedKey get(Serializable key) {
+			Objects.requireNonNull(key);
+			expungeStale();
+			SerializedKey serialized = memo.get(new IdentityKey(key, null));
+			if (serialized == null) {
+				serialized = new SerializedKey(key);
+				memo.put(new IdentityKey(key, queue), serialized);
+			}
+			return serialized;
+		}
+
+		private void expungeStale() {
+			Object stale;
+			while ((stale = queue.poll()) != null) {
+				memo.remove(stale);
+			}
+		}
+	}
+
+	private static final class IdentityKey extends WeakReference<Object> {
+		private final int hashCode;
+
+		IdentityKey(Object referent, @Nullable ReferenceQueue<Object> queue) {
+			super(referent, queue);
+			this.hashCode = System.identityHashCode(referent);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof IdentityKey)) {
+				return false;
+			}
+			Object referent = get();
+			return referent != null && referent == ((IdentityKey) other).get();
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	private static void close(List<Entry> entries) {
+		for (Entry entry : entries) {
+			try {
+				entry.close();
+			} catch (IOException e) {
+				throw ThrowingEx.asRuntime(e);
+			}
+		}
+	}
+
+	/** Returns a snapshot of the hit, miss and eviction counts of the global cache, along with its current size. */
+	public static Stats stats() {
+		return new Stats(instance.hits.sum(), instance.misses.sum(), instance.evictions.sum(), instance.cache.size());
+	}
+
+	/** Counters for the global cache, as returned by {@link SpotlessCache#stats()}. */
+	public static final class Stats {
+		private final long hits, misses, evictions;
+		private final int size;
+
+		private Stats(long hits, long misses, long evictions, int size) {
+			this.hits = hits;
+			this.misses = misses;
+			this.evictions = evictions;
+			this.size = size;
+		}
+
+		/** Number of lookups which found an existing classloader. */
+		public long hits() {
+			return hits;
+		}
+
+		/** Number of lookups which had to create a new classloader. */
+		public long misses() {
+			return misses;
+		}
+
+		/** Number of classloaders which were evicted because of the size or idle limit (not counting {@link SpotlessCache#clearOnce(Object)}). */
+		public long evictions() {
+			return evictions;
+		}
+
+		/** Number of classloaders which are currently cached. */
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return "SpotlessCache[size=" + size + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+		}
 	}
 
 	static SpotlessCache instance() {
@@ -79,18 +394,16 @@ public final class SpotlessCache {
 	 * Closes all cached classloaders.
 	 */
 	private static void clear() {
-		List<URLClassLoader> toDelete;
+		List<Entry> toDelete = new ArrayList<>();
 		synchronized (instance) {
-			toDelete = new ArrayList<>(instance.cache.values());
-			instance.cache.clear();
-		}
-		for (URLClassLoader classLoader : toDelete) {
-			try {
-				classLoader.close();
-			} catch (IOException e) {
-				throw ThrowingEx.asRuntime(e);
+			// remove one-by-one, so that a classloader created concurrently is either closed or kept
+			Iterator<Entry> entries = instance.cache.values().iterator();
+			while (entries.hasNext()) {
+				toDelete.add(entries.next());
+				entries.remove();
 			}
 		}
+		close(toDelete);
 	}
 
 	private static volatile Object lastClear;
@@ -113,5 +426,11 @@ public final class SpotlessCache {
 		return true;
 	}
 
-	private static final SpotlessCache instance = new SpotlessCache();
+	/**
+	 * The limits can be tuned with the `spotless.cache.maxClassLoaders` and `spotless.cache.maxIdleMinutes`
+	 * system properties, e.g. for a long-lived daemon which cycles through many formatter versions.
+	 */
+	private static final SpotlessCache instance = new SpotlessCache(
+			Integer.getInteger("spotless.cache.maxClassLoaders", 32),
+			TimeUnit.MINUTES.toNanos(Long.getLong("spotless.cache.maxIdleMinutes", 60)));
 }
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-step call counts, latencies and sizes, recorded by a {@link Formatter} which was created
+ * with {@link Formatter#withStepMetrics(StepMetrics)}.  Safe to record into from many threads, so
+ * that every worker's {@link Formatter#copyForWorker()} can share the same metrics.
+ *
+ * Latency percentiles come from a log-scale histogram with four buckets per power of two, so
+ * they are reported as the upper bound of their bucket, which is at most 25% above the true value.
+ * Sizes are measured in chars of the unix-newline content, not in bytes on disk.
+ */
+public final class StepMetrics {
+	private final List<Recorder> recorders;
+
+	/** Creates empty metrics for the given steps, which must be the steps of the formatter that records into it. */
+	public StepMetrics(List<FormatterStep> steps) {
+		List<Recorder> recorders = new ArrayList<>(steps.size());
+		for (FormatterStep step : steps) {
+			recorders.add(new Recorder(step.getName()));
+		}
+		this.recorders = Collections.unmodifiableList(recorders);
+	}
+
+	int size() {
+		return recorders.size();
+	}
+
+	/** Records one call to the given step, whether it succeeded or threw. */
+	void record(int step, long nanos, int charsIn, int charsOut, boolean failed) {
+		Recorder recorder = recorders.get(step);
+		recorder.calls.increment();
+		recorder.totalNanos.add(nanos);
+		recorder.charsIn.add(charsIn);
+		recorder.charsOut.add(charsOut);
+		if (failed) {
+			recorder.failures.increment();
+		}
+		recorder.histogram.incrementAndGet(bucketOf(nanos));
+	}
+
+	/** Records one {@link FormatterFunc.Batch} call of the given step, whose results are then handed out by its regular calls. */
+	void recordBatch(int step, long nanos, int files) {
+		Recorder recorder = recorders.get(step);
+		recorder.batchCalls.increment();
+		recorder.batchFiles.add(files);
+		recorder.batchNanos.add(nanos);
+	}
+
+	/** Returns a snapshot of the metrics of each step, in the same order as the formatter's steps. */
+	public List<Step> steps() {
+		List<Step> steps = new ArrayList<>(recorders.size());
+		for (Recorder recorder : recorders) {
+			steps.add(new Step(recorder));
+		}
+		return steps;
+	}
+
+	/** Returns true if no step has been called yet. */
+	public boolean isEmpty() {
+		for (Recorder recorder : recorders) {
+			if (recorder.calls.sum() != 0 || recorder.batchCalls.sum() != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Returns a human-readable table with one row per step. */
+	public String summary() {
+		int nameWidth = "step".length();
+		for (Recorder recorder : recorders) {
+			nameWidth = Math.max(nameWidth, recorder.name.length());
+		}
+		String rowFormat = "%-" + nameWidth + "s %8s %7s %11s %9s %9s %9s %12s %12s%n";
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format(Locale.ROOT, rowFormat, "step", "calls", "failed", "total ms", "p50 ms", "p90 ms", "p99 ms", "chars in", "chars out"));
+		for (Step step : steps()) {
+			builder.append(String.format(Locale.ROOT, rowFormat,
+					step.name(),
+					step.calls(),
+					step.failures(),
+					millis(step.totalNanos()),
+					millis(step.percentileNanos(0.50)),
+					millis(step.percentileNanos(0.90)),
+					millis(step.percentileNanos(0.99)),
+					step.charsIn(),
+					step.charsOut()));
+			if (step.batchCalls() > 0) {
+				builder.append(String.format(Locale.ROOT, "%-" + nameWidth + "s   plus %d batches of %d files in %s ms%n",
+						"", step.batchCalls(), step.batchFiles(), millis(step.batchNanos())));
+			}
+		}
+		return builder.toString();
+	}
+
+	/** Returns the metrics as a JSON object, with all durations in nanoseconds. */
+	public String toJson() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"steps\":[");
+		List<Step> steps = steps();
+		for (int i = 0; i < steps.size(); ++i) {
+			Step step = steps.get(i);
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append("\n{\"name\":");
+			appendJsonString(builder, step.name());
+			builder.append(",\"calls\":").append(step.calls());
+			builder.append(",\"failures\":").append(step.failures());
+			builder.append(",\"totalNanos\":").append(step.totalNanos());
+			builder.append(",\"p50Nanos\":").append(step.percentileNanos(0.50));
+			builder.append(",\"p90Nanos\":").append(step.percentileNanos(0.90));
+			builder.append(",\"p99Nanos\":").append(step.percentileNanos(0.99));
+			builder.append(",\"maxNanos\":").append(step.percentileNanos(1.0));
+			builder.append(",\"charsIn\":").append(step.charsIn());
+			builder.append(",\"charsOut\":").append(step.charsOut());
+			builder.append(",\"batchCalls\":").append(step.batchCalls());
+			builder.append(",\"batchFiles\":").append(step.batchFiles());
+			builder.append(",\"batchNanos\":").append(step.batchNanos());
+			builder.append('}');
+		}
+		builder.append("\n]}\n");
+		return builder.toString();
+	}
+
+	/** Writes {@link #toJson()} to the given file, creating its parent directories if necessary. */
+	public void writeJsonTo(File file) throws IOException {
+		Objects.requireNonNull(file, "file");
+		Files.createDirectories(file.toPath().toAbsolutePath().getParent());
+		Files.write(file.toPath(), toJson().getBytes(UTF_8));
+	}
+
+	/** The metrics of a single step, at the time that {@link StepMetrics#steps()} was called. */
+	public static final class Step {
+		private final String name;
+		private final long calls, failures, totalNanos, charsIn, charsOut;
+		private final long batchCalls, batchFiles, batchNanos;
+		private final long[] histogram;
+
+		private Step(Recorder recorder) {
+			this.name = recorder.name;
+			this.calls = recorder.calls.sum();
+			this.failures = recorder.failures.sum();
+			this.totalNanos = recorder.totalNanos.sum();
+			this.charsIn = recorder.charsIn.sum();
+			this.charsOut = recorder.charsOut.sum();
+			this.batchCalls = recorder.batchCalls.sum();
+			this.batchFiles = recorder.batchFiles.sum();
+			this.batchNanos = recorder.batchNanos.sum();
+			this.histogram = new long[recorder.histogram.length()];
+			for (int i = 0; i < histogram.length; ++i) {
+				histogram[i] = recorder.histogram.get(i);
+			}
+		}
+
+		public String name() {
+			return name;
+		}
+
+		/** The number of times the step formatted a single file, including the calls which threw. */
+		public long calls() {
+			return calls;
+		}
+
+		/** The number of calls which threw an exception. */
+		public long failures() {
+			return failures;
+		}
+
+		public long totalNanos() {
+			return totalNanos;
+		}
+
+		/** Returns the latency which the given fraction (between 0 and 1) of calls didn't exceed, or 0 if there were no calls. */
+		public long percentileNanos(double fraction) {
+			if (fraction < 0 || fraction > 1) {
+				throw new IllegalArgumentException("fraction must be between 0 and 1, was " + fraction);
+			}
+			long total = 0;
+			for (long count : histogram) {
+				total += count;
+			}
+			if (total == 0) {
+				return 0;
+			}
+			long target = Math.max(1, (long) Math.ceil(fraction * total));
+			long seen = 0;
+			for (int i = 0; i < histogram.length; ++i) {
+				seen += histogram[i];
+				if (seen >= target) {
+					return upperBoundOf(i);
+				}
+			}
+			return upperBoundOf(histogram.length - 1);
+		}
+
+		public long charsIn() {
+			return charsIn;
+		}
+
+		public long charsOut() {
+			return charsOut;
+		}
+
+		/** The number of {@link FormatterFunc.Batch} calls, which aren't included in {@link #calls()}. */
+		public long batchCalls() {
+			return batchCalls;
+		}
+
+		public long batchFiles() {
+			return batchFiles;
+		}
+
+		public long batchNanos() {
+			return batchNanos;
+		}
+	}
+
+	private static final class Recorder {
+		final String name;
+		final LongAdder calls = new LongAdder();
+		final LongAdder failures = new LongAdder();
+		final LongAdder totalNanos = new LongAdder();
+		final LongAdder charsIn = new LongAdder();
+		final LongAdder charsOut = new LongAdder();
+		final LongAdder batchCalls = new LongAdder();
+		final LongAdder batchFiles = new LongAdder();
+		final LongAdder batchNanos = new LongAdder();
+		final AtomicLongArray histogram = new AtomicLongArray(NUM_BUCKETS);
+
+		Recorder(String name) {
+			this.name = name;
+		}
+	}
+
+	/** Values below 4 get a bucket each, then every power of two is split into four buckets. */
+	private static final int NUM_BUCKETS = 4 + 61 * 4;
+
+	static int bucketOf(long nanos) {
+		if (nanos < 4) {
+			return (int) Math.max(0, nanos);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int quarter = (int) (nanos >>> (exponent - 2)) & 3;
+		return 4 + (exponent - 2) * 4 + quarter;
+	}
+
+	static long upperBoundOf(int bucket) {
+		if (bucket < 4) {
+			return bucket;
+		}
+		int shift = (bucket - 4) / 4;
+		int quarter = (bucket - 4) % 4;
+		return ((4L + quarter + 1) << shift) - 1;
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+	}
+
+	private static void appendJsonString(StringBuilder builder, String value) {
+		builder.append('"');
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20) {
+				builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		builder.append('"');
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 DiffPlug
+ * Copyright 2020-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -27,6 +27,7 @@ import javax.annotation.Nullable;
 import com.diffplug.spotless.ForeignExe;
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.FormatterStep;
+import com.diffplug.spotless.InPlaceBatch;
 import com.diffplug.spotless.ProcessRunner;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -111,9 +112,52 @@ public class ClangFormatStep {
 			return runner.exec(input.getBytes(StandardCharsets.UTF_8), processArgs).assertExitZero(StandardCharsets.UTF_8);
 		}
 
-		FormatterFunc.Closeable toFunc() {
-			ProcessRunner runner = new ProcessRunner();
-			return FormatterFunc.Closeable.of(runner, this::format);
+		/** Formats all of the inputs with a single `clang-format -i` in a temp dir, rather than one process per file. */
+		List<String> formatBatch(ProcessRunner runner, List<String> inputs, List<File> files) throws IOException, InterruptedException {
+			List<String> fileNames = new ArrayList<>(files.size());
+			for (File file : files) {
+				fileNames.add(file.getName());
+			}
+			List<File> sharedFiles = new ArrayList<>(1);
+			if (style == null || style.equals("file")) {
+				// `--assume-filename` is relative, so clang-format searches for its config starting in the working dir
+				File config = InPlaceBatch.findUpwards(new File(""), ".clang-format", "_clang-format");
+				if (config != null) {
+					sharedFiles.add(config);
+				}
+			}
+			return InPlaceBatch.format(inputs, fileNames, sharedFiles, (tempDir, paths) -> {
+				List<String> processArgs = new ArrayList<>(args.size() + 1 + paths.size());
+				processArgs.addAll(args);
+				processArgs.add("-i");
+				processArgs.addAll(paths);
+				return runner.exec(processArgs);
+			});
+		}
+
+		FormatterFunc toFunc() {
+			// the shared runner limits how many processes run at once across all the parallel workers
+			return new Func(this, ProcessRunner.shared());
+		}
+	}
+
+	private static class Func implements FormatterFunc.NeedsFile, FormatterFunc.Batch {
+		private final State state;
+		private final ProcessRunner runner;
+
+		Func(State state, ProcessRunner runner) {
+			this.state = state;
+			this.runner = runner;
+		}
+
+		@Override
+		public String applyWithFile(String unix, File file) throws Exception {
+			return state.format(runner, unix, file);
+		}
+
+		@Override
+		public List<String> applyBatch(List<String> unix, List<File> files) throws Exception {
+			return state.formatBatch(runner, unix, files);
 		}
 	}
 }
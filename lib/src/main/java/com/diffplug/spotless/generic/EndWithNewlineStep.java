@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,7 @@
  */
 package com.diffplug.spotless.generic;
 
+import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.FormatterStep;
 
 public final class EndWithNewlineStep {
@@ -25,7 +26,7 @@ public final class EndWithNewlineStep {
 	public static FormatterStep create() {
 		return FormatterStep.create("endWithNewline",
 				EndWithNewlineStep.class,
-				unused -> EndWithNewlineStep::format);
+				unused -> (FormatterFunc.UnixOutput) EndWithNewlineStep::format);
 	}
 
 	private static String format(String rawUnix) {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -66,7 +66,7 @@ public final class IndentStep {
 		}
 
 		FormatterFunc toFormatter() {
-			return new Runtime(this)::format;
+			return (FormatterFunc.UnixOutput) new Runtime(this)::format;
 		}
 	}
 
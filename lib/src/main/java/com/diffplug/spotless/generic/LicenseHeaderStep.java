@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -51,19 +51,32 @@ public final class LicenseHeaderStep {
 	}
 
 	public static LicenseHeaderStep headerDelimiter(ThrowingEx.Supplier<String> headerLazy, String delimiter) {
-		return new LicenseHeaderStep(headerLazy, delimiter, DEFAULT_YEAR_DELIMITER, () -> YearMode.PRESERVE);
+		return new LicenseHeaderStep(headerLazy, delimiter, DEFAULT_YEAR_DELIMITER, () -> YearMode.PRESERVE, null);
+	}
+
+	/**
+	 * Finds the years of the oldest and most recent commits of a file, e.g. from an index of the whole git history.
+	 * Without one, {@link YearMode#SET_FROM_GIT} runs `git log` a few times for every file.
+	 */
+	@FunctionalInterface
+	public interface YearsFromGit {
+		/** Returns `{firstYear, lastYear}` for the given file, or null if it isn't in the git history. */
+		@Nullable
+		int[] firstAndLastYear(File file) throws IOException;
 	}
 
 	final ThrowingEx.Supplier<String> headerLazy;
 	final String delimiter;
 	final String yearSeparator;
 	final Supplier<YearMode> yearMode;
+	final @Nullable YearsFromGit yearsFromGit;
 
-	private LicenseHeaderStep(ThrowingEx.Supplier<String> headerLazy, String delimiter, String yearSeparator, Supplier<YearMode> yearMode) {
+	private LicenseHeaderStep(ThrowingEx.Supplier<String> headerLazy, String delimiter, String yearSeparator, Supplier<YearMode> yearMode, @Nullable YearsFromGit yearsFromGit) {
 		this.headerLazy = Objects.requireNonNull(headerLazy);
 		this.delimiter = Objects.requireNonNull(delimiter);
 		this.yearSeparator = Objects.requireNonNull(yearSeparator);
 		this.yearMode = Objects.requireNonNull(yearMode);
+		this.yearsFromGit = yearsFromGit;
 	}
 
 	public LicenseHeaderStep withHeaderString(String header) {
@@ -71,15 +84,15 @@ public final class LicenseHeaderStep {
 	}
 
 	public LicenseHeaderStep withHeaderLazy(ThrowingEx.Supplier<String> headerLazy) {
-		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode);
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, yearsFromGit);
 	}
 
 	public LicenseHeaderStep withDelimiter(String delimiter) {
-		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode);
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, yearsFromGit);
 	}
 
 	public LicenseHeaderStep withYearSeparator(String yearSeparator) {
-		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode);
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, yearsFromGit);
 	}
 
 	public LicenseHeaderStep withYearMode(YearMode yearMode) {
@@ -87,7 +100,12 @@ public final class LicenseHeaderStep {
 	}
 
 	public LicenseHeaderStep withYearModeLazy(Supplier<YearMode> yearMode) {
-		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode);
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, yearsFromGit);
+	}
+
+	/** Sets how {@link YearMode#SET_FROM_GIT} finds the years of each file, instead of calling `git log`. */
+	public LicenseHeaderStep withYearsFromGit(YearsFromGit yearsFromGit) {
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, Objects.requireNonNull(yearsFromGit));
 	}
 
 	public FormatterStep build() {
@@ -95,7 +113,7 @@ public final class LicenseHeaderStep {
 			return FormatterStep.createNeverUpToDateLazy(LicenseHeaderStep.name(), () -> {
 				boolean updateYear = false; // doesn't matter
 				Runtime runtime = new Runtime(headerLazy.get(), delimiter, yearSeparator, updateYear);
-				return FormatterFunc.needsFile(runtime::setLicenseHeaderYearsFromGitHistory);
+				return FormatterFunc.needsFile((raw, file) -> runtime.setLicenseHeaderYearsFromGitHistory(raw, file, yearsFromGit));
 			});
 		} else {
 			return FormatterStep.createLazy(LicenseHeaderStep.name(), () -> {
@@ -275,7 +293,7 @@ public final class LicenseHeaderStep {
 		}
 
 		/** Sets copyright years on the given file by finding the oldest and most recent commits throughout git history. */
-		private String setLicenseHeaderYearsFromGitHistory(String raw, File file) throws IOException {
+		private String setLicenseHeaderYearsFromGitHistory(String raw, File file, @Nullable YearsFromGit yearsFromGit) throws IOException {
 			if (yearToday == null) {
 				return raw;
 			}
@@ -285,15 +303,18 @@ public final class LicenseHeaderStep {
 			}
 
 			String oldYear;
-			try {
-				oldYear = parseYear("git log --follow --find-renames=40% --diff-filter=A", file);
-			} catch (IllegalArgumentException e) {
-				// Ideally, git log would always find the commit where it was added.
-				// For some reason, that is sometimes not possible - in that case,
-				// we'll settle for just the most recent, even if it was just a modification.
-				oldYear = parseYear("git log --follow --find-renames=40% --reverse", file);
+			String newYear;
+			if (yearsFromGit != null) {
+				int[] years = yearsFromGit.firstAndLastYear(file);
+				if (years == null) {
+					throw new IllegalArgumentException("Unable to find " + file + " in the git history");
+				}
+				oldYear = Integer.toString(years[0]);
+				newYear = Integer.toString(years[1]);
+			} else {
+				oldYear = oldYearFromGitLog(file);
+				newYear = parseYear("git log --max-count=1", file);
 			}
-			String newYear = parseYear("git log --max-count=1", file);
 			String yearRange;
 			if (oldYear.equals(newYear)) {
 				yearRange = oldYear;
@@ -303,6 +324,17 @@ public final class LicenseHeaderStep {
 			return beforeYear + yearRange + afterYear + raw.substring(contentMatcher.start());
 		}
 
+		private static String oldYearFromGitLog(File file) throws IOException {
+			try {
+				return parseYear("git log --follow --find-renames=40% --diff-filter=A", file);
+			} catch (IllegalArgumentException e) {
+				// Ideally, git log would always find the commit where it was added.
+				// For some reason, that is sometimes not possible - in that case,
+				// we'll settle for just the most recent, even if it was just a modification.
+				return parseYear("git log --follow --find-renames=40% --reverse", file);
+			}
+		}
+
 		private static String parseYear(String cmd, File file) throws IOException {
 			String fullCmd = cmd + " " + file.getAbsolutePath();
 			ProcessBuilder builder = new ProcessBuilder().directory(file.getParentFile());
@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 DiffPlug
+ * Copyright 2020-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -110,7 +110,6 @@ public class PipeStepPair {
 		private static final long serialVersionUID = -844178006407733370L;
 
 		final List<FormatterStep> steps;
-		final transient StringBuilder builder = new StringBuilder();
 
 		StateApplyToBlock(Pattern regex, Collection<? extends FormatterStep> steps) {
 			super(regex);
@@ -123,10 +122,13 @@ public class PipeStepPair {
 					.lineEndingsPolicy(LineEnding.UNIX.createPolicy()) // just internal, won't conflict with user
 					.steps(steps)
 					.rootDir(rootDir)
-					.build();
+					.build()
+					// every FormatterFunc gets its own substeps, so that workers don't share them
+					.copyForWorker();
 		}
 
 		private String format(Formatter formatter, String unix, File file) throws Exception {
+			List<String> groups = this.groups.get();
 			groups.clear();
 			Matcher matcher = regex.matcher(unix);
 			while (matcher.find()) {
@@ -134,7 +136,7 @@ public class PipeStepPair {
 				groups.add(formatter.compute(matcher.group(1), file));
 			}
 			// and then assemble the result right away
-			return stateOutCompute(this, builder, unix);
+			return stateOutCompute(this, unix);
 		}
 	}
 
@@ -148,9 +150,11 @@ public class PipeStepPair {
 			this.regex = Objects.requireNonNull(regex);
 		}
 
-		final transient ArrayList<String> groups = new ArrayList<>();
+		/** Per-thread, so that the In and Out steps of a single worker are paired with each other. */
+		final transient ThreadLocal<List<String>> groups = ThreadLocal.withInitial(ArrayList::new);
 
 		private String format(String unix) throws Exception {
+			List<String> groups = this.groups.get();
 			groups.clear();
 			Matcher matcher = regex.matcher(unix);
 			while (matcher.find()) {
@@ -170,28 +174,27 @@ public class PipeStepPair {
 			this.in = Objects.requireNonNull(in);
 		}
 
-		final transient StringBuilder builder = new StringBuilder();
-
 		private String format(String unix) {
-			return stateOutCompute(in, builder, unix);
+			return stateOutCompute(in, unix);
 		}
 	}
 
-	private static String stateOutCompute(StateIn in, StringBuilder builder, String unix) {
-		if (in.groups.isEmpty()) {
+	private static String stateOutCompute(StateIn in, String unix) {
+		List<String> groups = in.groups.get();
+		if (groups.isEmpty()) {
 			return unix;
 		}
-		builder.setLength(0);
+		StringBuilder builder = new StringBuilder(unix.length());
 		Matcher matcher = in.regex.matcher(unix);
 		int lastEnd = 0;
 		int groupIdx = 0;
 		while (matcher.find()) {
 			builder.append(unix, lastEnd, matcher.start(1));
-			builder.append(in.groups.get(groupIdx));
+			builder.append(groups.get(groupIdx));
 			lastEnd = matcher.end(1);
 			++groupIdx;
 		}
-		if (groupIdx == in.groups.size()) {
+		if (groupIdx == groups.size()) {
 			builder.append(unix, lastEnd, unix.length());
 			return builder.toString();
 		} else {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,8 +17,9 @@ package com.diffplug.spotless.kotlin;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Collections;
@@ -32,7 +33,6 @@ import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.JarState;
 import com.diffplug.spotless.Provisioner;
-import com.diffplug.spotless.ThrowingEx;
 
 /** Wraps up [ktlint](https://github.com/pinterest/ktlint) as a FormatterStep. */
 public class KtLintStep {
@@ -153,7 +153,10 @@ public class KtLintStep {
 			// grab the KtLint singleton
 			Class<?> ktlintClass = classLoader.loadClass(pkg + ".ktlint.core.KtLint");
 			Object ktlint = ktlintClass.getDeclaredField("INSTANCE").get(null);
-			FormatterFunc formatterFunc;
+			// everything but the text is the same for every file, so it is bound to the handles once
+			Map<String, String> immutableUserData = Collections.unmodifiableMap(userData);
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodHandle format;
 			if (useParams) {
 				//
 				// In KtLint 0.34+ there is a new "format(params: Params)" function. We create an
@@ -163,7 +166,7 @@ public class KtLintStep {
 				// grab the Params class
 				Class<?> paramsClass = classLoader.loadClass(pkg + ".ktlint.core.KtLint$Params");
 				// and its constructor
-				Constructor<?> constructor = paramsClass.getConstructor(
+				MethodHandle constructor = lookup.findConstructor(paramsClass, MethodType.methodType(void.class,
 						/* fileName, nullable */ String.class,
 						/* text */ String.class,
 						/* ruleSets */ Iterable.class,
@@ -171,37 +174,35 @@ public class KtLintStep {
 						/* callback */ function2Interface,
 						/* script */ boolean.class,
 						/* editorConfigPath, nullable */ String.class,
-						/* debug */ boolean.class);
-				Method formatterMethod = ktlintClass.getMethod("format", paramsClass);
-				formatterFunc = input -> {
-					try {
-						Object params = constructor.newInstance(
-								/* fileName, nullable */ null,
-								/* text */ input,
-								/* ruleSets */ ruleSets,
-								/* userData */ userData,
-								/* callback */ formatterCallback,
-								/* script */ isScript,
-								/* editorConfigPath, nullable */ null,
-								/* debug */ false);
-						return (String) formatterMethod.invoke(ktlint, params);
-					} catch (InvocationTargetException e) {
-						throw ThrowingEx.unwrapCause(e);
-					}
-				};
+						/* debug */ boolean.class));
+				constructor = MethodHandles.insertArguments(constructor, 2,
+						/* ruleSets */ ruleSets,
+						/* userData */ immutableUserData,
+						/* callback */ formatterCallback,
+						/* script */ isScript,
+						/* editorConfigPath, nullable */ null,
+						/* debug */ false);
+				constructor = MethodHandles.insertArguments(constructor, 0, new Object[]{/* fileName, nullable */ null});
+				// (Params) -> String, fed by (String) -> Params
+				MethodHandle formatterMethod = lookup.findVirtual(ktlintClass, "format", MethodType.methodType(String.class, paramsClass));
+				format = MethodHandles.filterArguments(formatterMethod.bindTo(ktlint), 0, constructor);
 			} else {
 				// and its format method
 				String formatterMethodName = isScript ? "formatScript" : "format";
-				Method formatterMethod = ktlintClass.getMethod(formatterMethodName, String.class, Iterable.class, Map.class, function2Interface);
-				formatterFunc = input -> {
-					try {
-						return (String) formatterMethod.invoke(ktlint, input, ruleSets, userData, formatterCallback);
-					} catch (InvocationTargetException e) {
-						throw ThrowingEx.unwrapCause(e);
-					}
-				};
+				MethodHandle formatterMethod = lookup.findVirtual(ktlintClass, formatterMethodName,
+						MethodType.methodType(String.class, String.class, Iterable.class, Map.class, function2Interface));
+				format = MethodHandles.insertArguments(formatterMethod.bindTo(ktlint), 1, ruleSets, immutableUserData, formatterCallback);
 			}
-
+			MethodHandle formatExact = format.asType(MethodType.methodType(String.class, String.class));
+			FormatterFunc formatterFunc = input -> {
+				try {
+					return (String) formatExact.invokeExact(input);
+				} catch (Error | Exception e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new IllegalStateException(e);
+				}
+			};
 			return formatterFunc;
 		}
 	}
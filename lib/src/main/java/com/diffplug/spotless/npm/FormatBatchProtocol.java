@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.npm;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.diffplug.spotless.ThrowingEx;
+
+/**
+ * The wire format of the `format-batch` endpoints in `prettier-serve.js` and `tsfmt-serve.js`.
+ *
+ * The request is `{"files": [{"file_content": ..., "config_options": ...}, ...]}`.  The response is
+ * plain text, so that it can be read without a json parser: for each file in order, a header line
+ * `ok <length>` or `error <length>`, followed by the formatted content (or error message) of exactly
+ * `<length>` UTF-16 characters, which is both javascript's and java's notion of string length.
+ */
+final class FormatBatchProtocol {
+	private FormatBatchProtocol() {
+		// no instance
+	}
+
+	static String toRequestJson(List<Map<String, Object>> files) {
+		StringWriter writer = new StringWriter();
+		ThrowingEx.run(() -> writeRequestJson(files, writer));
+		return writer.toString();
+	}
+
+	static void writeRequestJson(List<Map<String, Object>> files, Writer writer) throws IOException {
+		writer.write("{\"files\": [");
+		for (int i = 0; i < files.size(); ++i) {
+			if (i > 0) {
+				writer.write(",\n");
+			}
+			SimpleJsonWriter.of(files.get(i)).writeTo(writer);
+		}
+		writer.write("]}");
+	}
+
+	/** Returns the formatted content of each file, with null for the files which failed to format. */
+	static List<String> parseResponse(String response, int expectedCount) {
+		List<String> results = new ArrayList<>(expectedCount);
+		int pos = 0;
+		while (pos < response.length()) {
+			int headerEnd = response.indexOf('\n', pos);
+			if (headerEnd == -1) {
+				throw new IllegalArgumentException("Missing header at position " + pos + " of batch response");
+			}
+			String[] header = response.substring(pos, headerEnd).split(" ");
+			if (header.length != 2 || !(header[0].equals("ok") || header[0].equals("error"))) {
+				throw new IllegalArgumentException("Malformed header '" + response.substring(pos, headerEnd) + "' in batch response");
+			}
+			int start = headerEnd + 1;
+			int end = start + Integer.parseInt(header[1]);
+			if (end > response.length()) {
+				throw new IllegalArgumentException("Truncated batch response");
+			}
+			results.add(header[0].equals("ok") ? response.substring(start, end) : null);
+			pos = end;
+		}
+		if (results.size() != expectedCount) {
+			throw new IllegalArgumentException("Expected " + expectedCount + " results in batch response, but was " + results.size());
+		}
+		return results;
+	}
+}
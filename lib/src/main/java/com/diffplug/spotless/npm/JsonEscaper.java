@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,10 @@ package com.diffplug.spotless.npm;
 
 import static java.util.Objects.requireNonNull;
 
+import java.io.IOException;
+
+import com.diffplug.spotless.ThrowingEx;
+
 /**
  * Simple implementation on how to escape values when printing json.
  * Implementation is partly based on https://github.com/stleary/JSON-java
@@ -27,21 +31,24 @@ final class JsonEscaper {
 	}
 
 	public static String jsonEscape(Object val) {
+		StringBuilder escaped = new StringBuilder();
+		ThrowingEx.run(() -> jsonEscape(val, escaped));
+		return escaped.toString();
+	}
+
+	/** Appends the escaped value to the given output, without building an intermediate string. */
+	public static void jsonEscape(Object val, Appendable escaped) throws IOException {
 		requireNonNull(val);
 		if (val instanceof JsonRawValue) {
-			return jsonEscape((JsonRawValue) val);
+			escaped.append(((JsonRawValue) val).getRawJson());
+		} else if (val instanceof String) {
+			jsonEscape((String) val, escaped);
+		} else {
+			escaped.append(val.toString());
 		}
-		if (val instanceof String) {
-			return jsonEscape((String) val);
-		}
-		return val.toString();
-	}
-
-	private static String jsonEscape(JsonRawValue jsonRawValue) {
-		return jsonRawValue.getRawJson();
 	}
 
-	private static String jsonEscape(String unescaped) {
+	private static void jsonEscape(String unescaped, Appendable escaped) throws IOException {
 		/**
 		 * the following characters are reserved in JSON and must be properly escaped to be used in strings:
 		 *
@@ -56,7 +63,6 @@ final class JsonEscaper {
 		 * additionally we handle xhtml '</bla>' string
 		 * and non-ascii chars
 		 */
-		StringBuilder escaped = new StringBuilder();
 		escaped.append('"');
 		char b;
 		char c = 0;
@@ -104,7 +110,6 @@ final class JsonEscaper {
 			}
 		}
 		escaped.append('"');
-		return escaped.toString();
 	}
 
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 DiffPlug
+ * Copyright 2020-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -23,12 +23,14 @@ class NodeServerLayout {
 	private final File packageJsonFile;
 	private final File serveJsFile;
 	private final File npmrcFile;
+	private final File installedMarkerFile;
 
 	NodeServerLayout(File buildDir, String stepName) {
 		this.nodeModulesDir = new File(buildDir, "spotless-node-modules-" + stepName);
 		this.packageJsonFile = new File(nodeModulesDir, "package.json");
 		this.serveJsFile = new File(nodeModulesDir, "serve.js");
 		this.npmrcFile = new File(nodeModulesDir, ".npmrc");
+		this.installedMarkerFile = new File(nodeModulesDir, "spotless-installed.txt");
 	}
 
 	File nodeModulesDir() {
@@ -46,4 +48,9 @@ class NodeServerLayout {
 	public File npmrcFile() {
 		return npmrcFile;
 	}
+
+	/** Records the package.json and .npmrc content of the last successful `npm install`. */
+	File installedMarkerFile() {
+		return installedMarkerFile;
+	}
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.npm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.diffplug.spotless.npm.NpmFormatterStepStateBase.ServerProcessInfo;
+
+/**
+ * Keeps npm-based servers running after their FormatterFunc is closed, so that later tasks and builds
+ * in the same JVM (e.g. a Gradle daemon, or the modules of a Maven build) can reuse them rather than
+ * waiting for node to start again.
+ *
+ * Enabled by setting the `spotless.npm.keepServerAliveMinutes` system property, and servers which
+ * have been idle for that long are shut down.  Each server is leased by one FormatterFunc at a time,
+ * so that parallel workers still get a server each.
+ */
+final class NodeServerPool {
+	private static final Logger logger = Logger.getLogger(NodeServerPool.class.getName());
+
+	static final String KEEP_ALIVE_MINUTES = "spotless.npm.keepServerAliveMinutes";
+
+	private static final long REAP_INTERVAL_SECONDS = 30;
+
+	private static final NodeServerPool instance = new NodeServerPool(TimeUnit.MINUTES.toNanos(Long.getLong(KEEP_ALIVE_MINUTES, 0)));
+
+	static NodeServerPool instance() {
+		return instance;
+	}
+
+	private final long keepAliveNanos;
+	/** Idle servers for each key, most-recently-used last. */
+	private final Map<Key, Deque<Idle>> idle = new HashMap<>();
+	private ScheduledExecutorService reaper;
+
+	private NodeServerPool(long keepAliveNanos) {
+		this.keepAliveNanos = keepAliveNanos;
+	}
+
+	boolean isEnabled() {
+		return keepAliveNanos > 0;
+	}
+
+	/** Returns the most-recently-used idle server which is still healthy, or starts a new one. */
+	ServerProcessInfo acquire(Key key, Supplier<ServerProcessInfo> start, Predicate<ServerProcessInfo> isHealthy) {
+		while (true) {
+			Idle candidate;
+			synchronized (this) {
+				Deque<Idle> servers = idle.get(key);
+				candidate = servers == null ? null : servers.pollLast();
+			}
+			if (candidate == null) {
+				return start.get();
+			} else if (candidate.server.isAlive() && isHealthy.test(candidate.server)) {
+				logger.fine("Reusing npm server at <" + candidate.server.getBaseUrl() + ">");
+				return candidate.server;
+			} else {
+				stop(candidate.server);
+			}
+		}
+	}
+
+	/** Returns a server to the pool, where it stays until it is reused or has been idle for too long. */
+	synchronized void release(Key key, ServerProcessInfo server) {
+		idle.computeIfAbsent(key, unused -> new ArrayDeque<>()).addLast(new Idle(server, System.nanoTime()));
+		if (reaper == null) {
+			reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "spotless-npm-server-reaper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			reaper.scheduleWithFixedDelay(() -> stopIdleServers(keepAliveNanos), REAP_INTERVAL_SECONDS, REAP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+			// the servers are separate processes, so they would outlive the JVM otherwise
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> stopIdleServers(0), "spotless-npm-server-shutdown"));
+		}
+	}
+
+	/** Stops the servers which have been idle for longer than the given time. */
+	private void stopIdleServers(long maxIdleNanos) {
+		long now = System.nanoTime();
+		List<ServerProcessInfo> expired = new ArrayList<>();
+		synchronized (this) {
+			for (Deque<Idle> servers : idle.values()) {
+				Iterator<Idle> leastRecentlyUsed = servers.iterator();
+				while (leastRecentlyUsed.hasNext()) {
+					Idle server = leastRecentlyUsed.next();
+					if (now - server.releasedNanos < maxIdleNanos) {
+						// everything after this was used more recently
+						break;
+					}
+					leastRecentlyUsed.remove();
+					expired.add(server.server);
+				}
+			}
+			idle.values().removeIf(Deque::isEmpty);
+		}
+		for (ServerProcessInfo server : expired) {
+			stop(server);
+		}
+	}
+
+	private static void stop(ServerProcessInfo server) {
+		try {
+			NpmFormatterStepStateBase.endServer(server);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Failed to stop npm server at <" + server.getBaseUrl() + ">", e);
+		}
+	}
+
+	private static final class Idle {
+		final ServerProcessInfo server;
+		final long releasedNanos;
+
+		Idle(ServerProcessInfo server, long releasedNanos) {
+			this.server = server;
+			this.releasedNanos = releasedNanos;
+		}
+	}
+
+	/** Identifies interchangeable servers by their directory and the serialized form of their configuration (package.json signature, serve script, etc). */
+	static final class Key {
+		private final byte[] serialized;
+		private final int hashCode;
+
+		Key(Serializable... parts) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+				output.writeObject(new ArrayList<>(Arrays.asList(parts)));
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to serialize server key", e);
+			}
+			this.serialized = bytes.toByteArray();
+			this.hashCode = Arrays.hashCode(serialized);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(serialized, ((Key) other).serialized);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.diffplug.spotless.FileSignature;
@@ -40,7 +41,6 @@ abstract class NpmFormatterStepStateBase implements Serializable {
 
 	private static final long serialVersionUID = 1460749955865959948L;
 
-	@SuppressWarnings("unused")
 	private final FileSignature packageJsonSignature;
 
 	@SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
@@ -53,6 +53,9 @@ abstract class NpmFormatterStepStateBase implements Serializable {
 
 	private final String stepName;
 
+	@SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
+	private transient NodeServerPool.Key serverKey;
+
 	protected NpmFormatterStepStateBase(String stepName, NpmConfig npmConfig, File buildDir, File npm) throws IOException {
 		this.stepName = requireNonNull(stepName);
 		this.npmConfig = requireNonNull(npmConfig);
@@ -75,16 +78,84 @@ abstract class NpmFormatterStepStateBase implements Serializable {
 		} else {
 			NpmResourceHelper.deleteFileIfExists(layout.npmrcFile());
 		}
+		String installedContent = this.npmConfig.getPackageJsonContent() + "\n" + this.npmConfig.getNpmrcContent();
+		if (NodeServerPool.instance().isEnabled() && isAlreadyInstalled(layout, installedContent)) {
+			FormattedPrinter.SYSOUT.print("skipping npm install, package.json is unchanged");
+			return layout;
+		}
+		NpmResourceHelper.deleteFileIfExists(layout.installedMarkerFile());
 		FormattedPrinter.SYSOUT.print("running npm install");
 		runNpmInstall(layout.nodeModulesDir());
 		FormattedPrinter.SYSOUT.print("npm install finished");
+		NpmResourceHelper.writeUtf8StringToFile(layout.installedMarkerFile(), installedContent);
 		return layout;
 	}
 
+	private static boolean isAlreadyInstalled(NodeServerLayout layout, String installedContent) {
+		return layout.installedMarkerFile().isFile()
+				&& new File(layout.nodeModulesDir(), "node_modules").isDirectory()
+				&& NpmResourceHelper.readUtf8StringFromFile(layout.installedMarkerFile()).equals(installedContent);
+	}
+
 	private void runNpmInstall(File npmProjectDir) throws IOException {
 		new NpmProcess(npmProjectDir, this.npmExecutable).install();
 	}
 
+	/**
+	 * Starts a server for this step, or reuses an idle one from the {@link NodeServerPool} if
+	 * `spotless.npm.keepServerAliveMinutes` is set.  Hand it back with {@link #releaseServer(ServerProcessInfo)}.
+	 */
+	protected ServerProcessInfo acquireServer() throws ServerStartException {
+		NodeServerPool pool = NodeServerPool.instance();
+		if (pool.isEnabled()) {
+			return pool.acquire(serverKey(), this::npmRunServer, this::isHealthy);
+		} else {
+			return npmRunServer();
+		}
+	}
+
+	/** Returns the server to the {@link NodeServerPool} if it is enabled, or ends it otherwise. */
+	protected void releaseServer(ServerProcessInfo server) throws Exception {
+		NodeServerPool pool = NodeServerPool.instance();
+		if (pool.isEnabled()) {
+			pool.release(serverKey(), server);
+		} else {
+			endServer(server);
+		}
+	}
+
+	/** The endpoint which is used to check that a pooled server still responds, any HTTP response counts as healthy. */
+	protected abstract String healthCheckEndpoint();
+
+	private boolean isHealthy(ServerProcessInfo server) {
+		try {
+			SimpleRestClient.forBaseUrl(server.getBaseUrl()).postJson(healthCheckEndpoint(), "{}");
+			return true;
+		} catch (SimpleRestClient.SimpleRestResponseException e) {
+			// an error response still means that the server is up
+			return true;
+		} catch (SimpleRestClient.SimpleRestException e) {
+			return false;
+		}
+	}
+
+	private NodeServerPool.Key serverKey() {
+		if (serverKey == null) {
+			serverKey = new NodeServerPool.Key(nodeModulesDir.getAbsolutePath(), packageJsonSignature, npmConfig);
+		}
+		return serverKey;
+	}
+
+	static void endServer(ServerProcessInfo server) throws Exception {
+		FormattedPrinter.SYSOUT.print("Closing formatting function (ending server).");
+		try {
+			SimpleRestClient.forBaseUrl(server.getBaseUrl()).post("/shutdown");
+		} catch (Throwable t) {
+			logger.log(Level.INFO, "Failed to request shutdown of rest service via api. Trying via process.", t);
+		}
+		server.close();
+	}
+
 	protected ServerProcessInfo npmRunServer() throws ServerStartException {
 		try {
 			// The npm process will output the randomly selected port of the http server process to 'server.port' file
@@ -159,6 +230,10 @@ abstract class NpmFormatterStepStateBase implements Serializable {
 			return "http://127.0.0.1:" + this.serverPort;
 		}
 
+		boolean isAlive() {
+			return server.isAlive();
+		}
+
 		@Override
 		public void close() throws Exception {
 			try {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -32,11 +32,6 @@ final class NpmResourceHelper {
 		Files.write(file.toPath(), stringToWrite.getBytes(StandardCharsets.UTF_8));
 	}
 
-	static void writeUtf8StringToOutputStream(String stringToWrite, OutputStream outputStream) throws IOException {
-		final byte[] bytes = stringToWrite.getBytes(StandardCharsets.UTF_8);
-		outputStream.write(bytes);
-	}
-
 	static void deleteFileIfExists(File file) throws IOException {
 		if (file.exists()) {
 			if (!file.delete()) {
@@ -20,24 +20,21 @@ import static java.util.Objects.requireNonNull;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
 
 import com.diffplug.spotless.FormatterFunc;
-import com.diffplug.spotless.FormatterFunc.Closeable;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.Provisioner;
 import com.diffplug.spotless.ThrowingEx;
 
 public class PrettierFormatterStep {
 
-	private static final Logger logger = Logger.getLogger(PrettierFormatterStep.class.getName());
-
 	public static final String NAME = "prettier-format";
 
 	public static final Map<String, String> defaultDevDependencies() {
@@ -81,34 +78,36 @@ public class PrettierFormatterStep {
 		public FormatterFunc createFormatterFunc() {
 			try {
 				FormattedPrinter.SYSOUT.print("creating formatter function (starting server)");
-				ServerProcessInfo prettierRestServer = npmRunServer();
+				ServerProcessInfo prettierRestServer = acquireServer();
 				PrettierRestService restService = new PrettierRestService(prettierRestServer.getBaseUrl());
 				String prettierConfigOptions = restService.resolveConfig(this.prettierConfig.getPrettierConfigPath(), this.prettierConfig.getOptions());
-				return Closeable.ofDangerous(() -> endServer(restService, prettierRestServer), new PrettierFilePathPassingFormatterFunc(prettierConfigOptions, restService));
+				return new PrettierFilePathPassingFormatterFunc(prettierConfigOptions, restService, () -> releaseServer(prettierRestServer));
 			} catch (Exception e) {
 				throw ThrowingEx.asRuntime(e);
 			}
 		}
 
-		private void endServer(PrettierRestService restService, ServerProcessInfo restServer) throws Exception {
-			FormattedPrinter.SYSOUT.print("Closing formatting function (ending server).");
-			try {
-				restService.shutdown();
-			} catch (Throwable t) {
-				logger.log(Level.INFO, "Failed to request shutdown of rest service via api. Trying via process.", t);
-			}
-			restServer.close();
+		@Override
+		protected String healthCheckEndpoint() {
+			return "/prettier/config-options";
 		}
 
 	}
 
-	private static class PrettierFilePathPassingFormatterFunc implements FormatterFunc.NeedsFile {
+	private static class PrettierFilePathPassingFormatterFunc implements FormatterFunc.Closeable, FormatterFunc.NeedsFile, FormatterFunc.Batch {
 		private final String prettierConfigOptions;
 		private final PrettierRestService restService;
+		private final AutoCloseable endServer;
 
-		public PrettierFilePathPassingFormatterFunc(String prettierConfigOptions, PrettierRestService restService) {
+		public PrettierFilePathPassingFormatterFunc(String prettierConfigOptions, PrettierRestService restService, AutoCloseable endServer) {
 			this.prettierConfigOptions = requireNonNull(prettierConfigOptions);
 			this.restService = requireNonNull(restService);
+			this.endServer = requireNonNull(endServer);
+		}
+
+		@Override
+		public void close() {
+			ThrowingEx.run(endServer::close);
 		}
 
 		@Override
@@ -119,6 +118,17 @@ public class PrettierFormatterStep {
 			return restService.format(unix, prettierConfigOptionsWithFilepath);
 		}
 
+		@Override
+		public List<String> applyBatch(List<String> unix, List<File> files) throws Exception {
+			FormattedPrinter.SYSOUT.print("formatting batch of " + files.size() + " files");
+
+			List<String> configOptions = new ArrayList<>(files.size());
+			for (File file : files) {
+				configOptions.add(assertFilepathInConfigOptions(file));
+			}
+			return restService.formatBatch(unix, configOptions);
+		}
+
 		private String assertFilepathInConfigOptions(File file) {
 			// if it is already in the options, we do nothing
 			if (prettierConfigOptions.contains("\"filepath\"") || prettierConfigOptions.contains("\"parser\"")) {
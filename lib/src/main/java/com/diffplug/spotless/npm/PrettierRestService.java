@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,7 +16,9 @@
 package com.diffplug.spotless.npm;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class PrettierRestService {
@@ -49,6 +51,24 @@ public class PrettierRestService {
 		return restClient.postJson("/prettier/format", jsonProperties);
 	}
 
+	/**
+	 * Formats all of the given files with a single request, and returns the results in the same order,
+	 * with null for the files which failed to format.
+	 */
+	public List<String> formatBatch(List<String> fileContents, List<String> configOptionsJsonStrings) {
+		List<Map<String, Object>> files = new ArrayList<>(fileContents.size());
+		for (int i = 0; i < fileContents.size(); ++i) {
+			Map<String, Object> jsonProperties = new LinkedHashMap<>();
+			jsonProperties.put("file_content", fileContents.get(i));
+			if (configOptionsJsonStrings.get(i) != null) {
+				jsonProperties.put("config_options", JsonRawValue.wrap(configOptionsJsonStrings.get(i)));
+			}
+			files.add(jsonProperties);
+		}
+		String response = restClient.postJson("/prettier/format-batch", writer -> FormatBatchProtocol.writeRequestJson(files, writer));
+		return FormatBatchProtocol.parseResponse(response, fileContents.size());
+	}
+
 	public String shutdown() {
 		return restClient.post("/shutdown");
 	}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,12 +19,13 @@ import static com.diffplug.spotless.npm.JsonEscaper.jsonEscape;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import com.diffplug.spotless.ThrowingEx;
 
@@ -59,11 +60,26 @@ public class SimpleJsonWriter {
 	}
 
 	String toJsonString() {
-		final String valueString = valueMap.entrySet()
-				.stream()
-				.map(entry -> "    " + jsonEscape(entry.getKey()) + ": " + jsonEscape(entry.getValue()))
-				.collect(Collectors.joining(",\n"));
-		return "{\n" + valueString + "\n}";
+		StringWriter writer = new StringWriter();
+		ThrowingEx.run(() -> writeTo(writer));
+		return writer.toString();
+	}
+
+	/** Writes the same json as {@link #toJsonString()}, but straight into the given writer. */
+	void writeTo(Writer writer) throws IOException {
+		writer.write("{\n");
+		boolean first = true;
+		for (Map.Entry<String, Object> entry : valueMap.entrySet()) {
+			if (!first) {
+				writer.write(",\n");
+			}
+			first = false;
+			writer.write("    ");
+			jsonEscape(entry.getKey(), writer);
+			writer.write(": ");
+			jsonEscape(entry.getValue(), writer);
+		}
+		writer.write("\n}");
 	}
 
 	JsonRawValue toJsonRawValue() {
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,15 +17,21 @@ package com.diffplug.spotless.npm;
 
 import static java.util.Objects.requireNonNull;
 
-import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 class SimpleRestClient {
 	private final String baseUrl;
@@ -40,55 +46,89 @@ class SimpleRestClient {
 
 	String postJson(String endpoint, Map<String, Object> jsonParams) throws SimpleRestException {
 		final SimpleJsonWriter jsonWriter = SimpleJsonWriter.of(jsonParams);
-		final String jsonString = jsonWriter.toJsonString();
 
-		return postJson(endpoint, jsonString);
+		return postJson(endpoint, jsonWriter::writeTo);
 	}
 
 	String post(String endpoint) throws SimpleRestException {
-		return postJson(endpoint, (String) null);
+		return postJson(endpoint, (RequestBody) null);
 	}
 
 	String postJson(String endpoint, String rawJson) throws SimpleRestException {
+		return postJson(endpoint, rawJson == null ? null : writer -> writer.write(rawJson));
+	}
+
+	/** Writes the body of a request straight into the connection, without building it up as a String first. */
+	@FunctionalInterface
+	interface RequestBody {
+		void writeTo(Writer writer) throws IOException;
+	}
+
+	/**
+	 * Connections are kept alive and reused by the JDK as long as each response is read completely
+	 * and the connection is not disconnected.  The server may close an idle connection just as we
+	 * reuse it, so failed requests are retried once, which is safe because formatting is idempotent.
+	 */
+	String postJson(String endpoint, @Nullable RequestBody body) throws SimpleRestException {
 		try {
-			URL url = new URL(this.baseUrl + endpoint);
-			HttpURLConnection con = (HttpURLConnection) url.openConnection();
-			con.setConnectTimeout(60 * 1000); // one minute
-			con.setReadTimeout(2 * 60 * 1000); // two minutes - who knows how large those files can actually get
-			con.setRequestMethod("POST");
-			con.setRequestProperty("Content-Type", "application/json");
-			con.setDoOutput(true);
-			if (rawJson != null) {
-				try (OutputStream out = con.getOutputStream()) {
-					NpmResourceHelper.writeUtf8StringToOutputStream(rawJson, out);
-					out.flush();
-				}
+			return execute(endpoint, body);
+		} catch (SocketTimeoutException e) {
+			throw new SimpleRestIOException(e);
+		} catch (IOException e) {
+			try {
+				return execute(endpoint, body);
+			} catch (IOException retryFailure) {
+				retryFailure.addSuppressed(e);
+				throw new SimpleRestIOException(retryFailure);
 			}
+		}
+	}
 
-			int status = con.getResponseCode();
-
-			if (status != 200) {
-				throw new SimpleRestResponseException(status, readError(con), "Unexpected response status code at " + endpoint);
+	private String execute(String endpoint, @Nullable RequestBody body) throws IOException {
+		URL url = new URL(this.baseUrl + endpoint);
+		HttpURLConnection con = (HttpURLConnection) url.openConnection();
+		con.setConnectTimeout(60 * 1000); // one minute
+		con.setReadTimeout(2 * 60 * 1000); // two minutes - who knows how large those files can actually get
+		con.setRequestMethod("POST");
+		con.setRequestProperty("Content-Type", "application/json");
+		con.setDoOutput(true);
+		if (body != null) {
+			// otherwise HttpURLConnection buffers the whole body to calculate its length
+			con.setChunkedStreamingMode(0);
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(con.getOutputStream(), StandardCharsets.UTF_8))) {
+				body.writeTo(writer);
 			}
+		}
 
-			String response = readResponse(con);
-			return response;
-		} catch (IOException e) {
-			throw new SimpleRestIOException(e);
+		int status = con.getResponseCode();
+
+		if (status != 200) {
+			throw new SimpleRestResponseException(status, readError(con), "Unexpected response status code at " + endpoint);
 		}
+
+		return readResponse(con);
 	}
 
 	private String readError(HttpURLConnection con) throws IOException {
-		return readInputStream(con.getErrorStream());
+		InputStream errorStream = con.getErrorStream();
+		return errorStream == null ? "" : readInputStream(errorStream, con.getContentLengthLong());
 	}
 
 	private String readResponse(HttpURLConnection con) throws IOException {
-		return readInputStream(con.getInputStream());
+		return readInputStream(con.getInputStream(), con.getContentLengthLong());
 	}
 
-	private String readInputStream(InputStream inputStream) throws IOException {
-		try (BufferedInputStream input = new BufferedInputStream(inputStream)) {
-			return NpmResourceHelper.readUtf8StringFromInputStream(input);
+	/** Reads the stream to the end (so that the connection can be reused) and decodes it straight into the result. */
+	private String readInputStream(InputStream inputStream, long contentLength) throws IOException {
+		try (Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
+			// for ascii content, the byte length is exactly the number of chars
+			StringBuilder result = new StringBuilder(contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : 8192);
+			char[] buffer = new char[8192];
+			int numRead;
+			while ((numRead = reader.read(buffer)) != -1) {
+				result.append(buffer, 0, numRead);
+			}
+			return result.toString();
 		}
 	}
 
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -21,22 +21,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.diffplug.spotless.FormatterFunc;
-import com.diffplug.spotless.FormatterFunc.Closeable;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.Provisioner;
 import com.diffplug.spotless.ThrowingEx;
 
 public class TsFmtFormatterStep {
 
-	private static final Logger logger = Logger.getLogger(TsFmtFormatterStep.class.getName());
-
 	public static final String NAME = "tsfmt-format";
 
 	public static FormatterStep create(Map<String, String> versions, Provisioner provisioner, File buildDir, NpmPathResolver npmPathResolver, @Nullable TypedTsFmtConfigFile configFile, @Nullable Map<String, Object> inlineTsFmtSettings) {
@@ -89,14 +84,19 @@ public class TsFmtFormatterStep {
 		public FormatterFunc createFormatterFunc() {
 			try {
 				Map<String, Object> tsFmtOptions = unifyOptions();
-				ServerProcessInfo tsfmtRestServer = npmRunServer();
+				ServerProcessInfo tsfmtRestServer = acquireServer();
 				TsFmtRestService restService = new TsFmtRestService(tsfmtRestServer.getBaseUrl());
-				return Closeable.ofDangerous(() -> endServer(restService, tsfmtRestServer), input -> restService.format(input, tsFmtOptions));
+				return new TsFmtFormatterFunc(tsFmtOptions, restService, () -> releaseServer(tsfmtRestServer));
 			} catch (Exception e) {
 				throw ThrowingEx.asRuntime(e);
 			}
 		}
 
+		@Override
+		protected String healthCheckEndpoint() {
+			return "/tsfmt/format";
+		}
+
 		private Map<String, Object> unifyOptions() {
 			Map<String, Object> unified = new HashMap<>();
 			if (!this.inlineTsFmtSettings.isEmpty()) {
@@ -110,14 +110,32 @@ public class TsFmtFormatterStep {
 			}
 			return unified;
 		}
+	}
 
-		private void endServer(TsFmtRestService restService, ServerProcessInfo restServer) throws Exception {
-			try {
-				restService.shutdown();
-			} catch (Throwable t) {
-				logger.log(Level.INFO, "Failed to request shutdown of rest service via api. Trying via process.", t);
-			}
-			restServer.close();
+	private static class TsFmtFormatterFunc implements FormatterFunc.Closeable, FormatterFunc.Batch {
+		private final Map<String, Object> tsFmtOptions;
+		private final TsFmtRestService restService;
+		private final AutoCloseable endServer;
+
+		TsFmtFormatterFunc(Map<String, Object> tsFmtOptions, TsFmtRestService restService, AutoCloseable endServer) {
+			this.tsFmtOptions = requireNonNull(tsFmtOptions);
+			this.restService = requireNonNull(restService);
+			this.endServer = requireNonNull(endServer);
+		}
+
+		@Override
+		public void close() {
+			ThrowingEx.run(endServer::close);
+		}
+
+		@Override
+		public String apply(String input) throws Exception {
+			return restService.format(input, tsFmtOptions);
+		}
+
+		@Override
+		public List<String> applyBatch(List<String> unix, List<File> files) throws Exception {
+			return restService.formatBatch(unix, tsFmtOptions);
 		}
 	}
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,7 +15,9 @@
  */
 package com.diffplug.spotless.npm;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class TsFmtRestService {
@@ -36,6 +38,25 @@ public class TsFmtRestService {
 		return restClient.postJson("/tsfmt/format", jsonProperties);
 	}
 
+	/**
+	 * Formats all of the given files with a single request, and returns the results in the same order,
+	 * with null for the files which failed to format.
+	 */
+	public List<String> formatBatch(List<String> fileContents, Map<String, Object> configOptions) {
+		JsonRawValue configOptionsJson = configOptions != null && !configOptions.isEmpty() ? SimpleJsonWriter.of(configOptions).toJsonRawValue() : null;
+		List<Map<String, Object>> files = new ArrayList<>(fileContents.size());
+		for (String fileContent : fileContents) {
+			Map<String, Object> jsonProperties = new LinkedHashMap<>();
+			jsonProperties.put("file_content", fileContent);
+			if (configOptionsJson != null) {
+				jsonProperties.put("config_options", configOptionsJson);
+			}
+			files.add(jsonProperties);
+		}
+		String response = restClient.postJson("/tsfmt/format-batch", writer -> FormatBatchProtocol.writeRequestJson(files, writer));
+		return FormatBatchProtocol.parseResponse(response, fileContents.size());
+	}
+
 	public String shutdown() {
 		return restClient.post("/shutdown");
 	}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 DiffPlug
+ * Copyright 2020-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,17 +15,24 @@
  */
 package com.diffplug.spotless.python;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
 import com.diffplug.spotless.ForeignExe;
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.FormatterStep;
+import com.diffplug.spotless.InPlaceBatch;
 import com.diffplug.spotless.ProcessRunner;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -86,9 +93,74 @@ public class BlackStep {
 			return runner.exec(input.getBytes(StandardCharsets.UTF_8), args).assertExitZero(StandardCharsets.UTF_8);
 		}
 
-		FormatterFunc.Closeable toFunc() {
-			ProcessRunner runner = new ProcessRunner();
-			return FormatterFunc.Closeable.of(runner, this::format);
+		/** Formats all of the inputs with a single `black` in a temp dir, rather than one process per file. */
+		List<String> formatBatch(ProcessRunner runner, List<String> inputs) throws IOException, InterruptedException {
+			// black formats stdin as a regular python file, regardless of the real file's extension
+			List<String> fileNames = Collections.nCopies(inputs.size(), "input.py");
+			List<File> sharedFiles = new ArrayList<>(1);
+			File pyprojectToml = pyprojectTomlForWorkingDir();
+			if (pyprojectToml != null) {
+				sharedFiles.add(pyprojectToml);
+			}
+			return InPlaceBatch.format(inputs, fileNames, sharedFiles, (tempDir, paths) -> {
+				List<String> processArgs = new ArrayList<>(2 + paths.size());
+				processArgs.add(args.get(0));
+				processArgs.add("--quiet");
+				processArgs.addAll(paths);
+				return runner.exec(new byte[0], processArgs, cacheInside(tempDir));
+			});
+		}
+
+		/**
+		 * Black records every file path it formats in a per-user cache, which nothing would ever prune
+		 * of our throwaway temp files, so the cache goes in the temp dir instead.  `BLACK_CACHE_DIR` is
+		 * honored by black 22 and later.  Older versions only honor `XDG_CACHE_HOME`, and only on Linux,
+		 * so on macOS and Windows they still write to the user's cache.
+		 */
+		private static Map<String, String> cacheInside(Path tempDir) {
+			String cacheDir = tempDir.resolve("black-cache").toString();
+			Map<String, String> environment = new HashMap<>();
+			environment.put("BLACK_CACHE_DIR", cacheDir);
+			environment.put("XDG_CACHE_HOME", cacheDir);
+			return environment;
+		}
+
+		/**
+		 * When reading stdin, black's project root is the first parent of the working dir which contains
+		 * `.git`, `.hg` or `pyproject.toml`, and its config is the `pyproject.toml` in that root.
+		 */
+		private static @Nullable File pyprojectTomlForWorkingDir() {
+			File projectRoot = InPlaceBatch.findUpwards(new File(""), ".git", ".hg", "pyproject.toml");
+			if (projectRoot == null) {
+				return null;
+			}
+			File pyprojectToml = new File(projectRoot.getParentFile(), "pyproject.toml");
+			return pyprojectToml.isFile() ? pyprojectToml : null;
+		}
+
+		FormatterFunc toFunc() {
+			// the shared runner limits how many processes run at once across all the parallel workers
+			return new Func(this, ProcessRunner.shared());
+		}
+	}
+
+	private static class Func implements FormatterFunc.Batch {
+		private final State state;
+		private final ProcessRunner runner;
+
+		Func(State state, ProcessRunner runner) {
+			this.state = state;
+			this.runner = runner;
+		}
+
+		@Override
+		public String apply(String unix) throws Exception {
+			return state.format(runner, unix);
+		}
+
+		@Override
+		public List<String> applyBatch(List<String> unix, List<File> files) throws Exception {
+			return state.formatBatch(runner, unix);
 		}
 	}
 }
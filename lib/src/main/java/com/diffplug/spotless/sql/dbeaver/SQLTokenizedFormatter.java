@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -41,29 +41,61 @@ public class SQLTokenizedFormatter {
 	private DBeaverSQLFormatterConfiguration formatterCfg;
 	private List<Boolean> functionBracket = new ArrayList<>();
 	private List<String> statementDelimiters = new ArrayList<>(2);
+	private final SQLTokensParser fParser = new SQLTokensParser();
+
+	/** The state which carries over from one statement to the next. */
+	private int indent;
+	private List<Integer> bracketIndent = new ArrayList<>();
+	private FormatterToken prev;
+	private boolean encounterBetween;
+	/** True if the statement being formatted is followed by another one. */
+	private boolean statementFollows;
 
 	public SQLTokenizedFormatter(DBeaverSQLFormatterConfiguration formatterCfg) {
 		this.formatterCfg = formatterCfg;
+		statementDelimiters.add(formatterCfg.getStatementDelimiter());
 	}
 
+	/**
+	 * Formats the given script one statement at a time, so that the tokens of a huge script (e.g. a
+	 * database dump) are never all in memory at once.  The result is the same as formatting all of
+	 * the tokens together, because statements are only split at delimiters which are outside of any
+	 * brackets, the indentation state carries over, and the whitespace token which follows each
+	 * delimiter is handed to the next statement.
+	 */
 	public String format(final String argSql) {
-
-		statementDelimiters.add(formatterCfg.getStatementDelimiter());
-		SQLTokensParser fParser = new SQLTokensParser();
-
+		fParser.reset(argSql);
 		functionBracket.clear();
+		indent = 0;
+		bracketIndent.clear();
+		prev = new FormatterToken(TokenType.SPACE, " ");
+		encounterBetween = false;
 
 		boolean isSqlEndsWithNewLine = false;
 		if (argSql.endsWith("\n")) {
 			isSqlEndsWithNewLine = true;
 		}
 
-		List<FormatterToken> list = fParser.parse(argSql);
-		list = format(list);
-
 		StringBuilder after = new StringBuilder(argSql.length() + 20);
-		for (FormatterToken token : list) {
-			after.append(token.getString());
+		TokenBuffer statement = prepare(nextStatement());
+		FormatterToken delimiterSpace = null;
+		while (!statement.isEmpty()) {
+			TokenBuffer next = prepare(nextStatement());
+			statementFollows = !next.isEmpty();
+			if (delimiterSpace != null) {
+				statement.add(0, delimiterSpace);
+			}
+			format(statement, delimiterSpace == null ? 0 : 1);
+			delimiterSpace = null;
+			int last = statement.size() - 1;
+			if (statementFollows && last > 0 && statement.get(last).getType() == TokenType.SPACE) {
+				// the space after the delimiter is formatted along with the next statement
+				delimiterSpace = statement.remove(last);
+			}
+			for (FormatterToken token : statement) {
+				after.append(token.getString());
+			}
+			statement = next;
 		}
 
 		if (isSqlEndsWithNewLine) {
@@ -73,7 +105,31 @@ public class SQLTokenizedFormatter {
 		return after.toString();
 	}
 
-	private List<FormatterToken> format(final List<FormatterToken> argList) {
+	/** Returns the tokens up to and including the next delimiter which isn't inside of brackets. */
+	private TokenBuffer nextStatement() {
+		TokenBuffer statement = new TokenBuffer(64);
+		int depth = 0;
+		for (;;) {
+			FormatterToken token = fParser.next();
+			if (token.getType() == TokenType.END) {
+				return statement;
+			}
+			statement.add(token);
+			if (token.getType() == TokenType.SYMBOL) {
+				String tokenString = token.getString();
+				if (tokenString.equals("(")) {
+					depth++;
+				} else if (tokenString.equals(")")) {
+					depth = Math.max(depth - 1, 0);
+				} else if (depth == 0 && statementDelimiters.contains(tokenString.toUpperCase(Locale.ENGLISH))) {
+					return statement;
+				}
+			}
+		}
+	}
+
+	/** Trims the statement, and runs the passes which only look at the statement itself. */
+	private TokenBuffer prepare(final TokenBuffer argList) {
 		if (argList.isEmpty()) {
 			return argList;
 		}
@@ -140,11 +196,13 @@ public class SQLTokenizedFormatter {
 			}
 		}
 
-		int indent = 0;
-		final List<Integer> bracketIndent = new ArrayList<>();
-		FormatterToken prev = new FormatterToken(TokenType.SPACE, " ");
-		boolean encounterBetween = false;
-		for (int index = 0; index < argList.size(); index++) {
+		return argList;
+	}
+
+	/** Formats a statement, whose first token may be the whitespace after the previous statement. */
+	private void format(final TokenBuffer argList, final int start) {
+		FormatterToken token;
+		for (int index = start; index < argList.size(); index++) {
 			token = argList.get(index);
 			String tokenString = token.getString().toUpperCase(Locale.ENGLISH);
 			if (token.getType() == TokenType.SYMBOL) {
@@ -296,37 +354,35 @@ public class SQLTokenizedFormatter {
 		}
 
 		for (int index = 1; index < argList.size(); index++) {
-			prev = argList.get(index - 1);
+			FormatterToken previous = argList.get(index - 1);
 			token = argList.get(index);
 
-			if (prev.getType() != TokenType.SPACE &&
+			if (previous.getType() != TokenType.SPACE &&
 					token.getType() != TokenType.SPACE &&
 					!token.getString().startsWith("(")) {
 				if (token.getString().equals(",") || statementDelimiters.contains(token.getString())) {
 					continue;
 				}
-				if (isFunction(prev.getString())
+				if (isFunction(previous.getString())
 						&& token.getString().equals("(")) {
 					continue;
 				}
-				if (token.getType() == TokenType.VALUE && prev.getType() == TokenType.NAME) {
+				if (token.getType() == TokenType.VALUE && previous.getType() == TokenType.NAME) {
 					// Do not add space between name and value [JDBC:MSSQL]
 					continue;
 				}
 				if (token.getType() == TokenType.SYMBOL && isEmbeddedToken(token) ||
-						prev.getType() == TokenType.SYMBOL && isEmbeddedToken(prev)) {
+						previous.getType() == TokenType.SYMBOL && isEmbeddedToken(previous)) {
 					// Do not insert spaces around colons
 					continue;
 				}
-				if (token.getType() == TokenType.SYMBOL && prev.getType() == TokenType.SYMBOL) {
+				if (token.getType() == TokenType.SYMBOL && previous.getType() == TokenType.SYMBOL) {
 					// Do not add space between symbols
 					continue;
 				}
 				argList.add(index, new FormatterToken(TokenType.SPACE, " "));
 			}
 		}
-
-		return argList;
 	}
 
 	private static boolean isEmbeddedToken(FormatterToken token) {
@@ -411,7 +467,7 @@ public class SQLTokenizedFormatter {
 			}
 
 			if (isDelimiter) {
-				if (argList.size() > argIndex + 1) {
+				if (argList.size() > argIndex + 1 || (statementFollows && argList.size() == argIndex + 1)) {
 					String string = s.toString();
 					argList.add(argIndex + 1, new FormatterToken(TokenType.SPACE, string + string));
 				}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -275,13 +275,23 @@ class SQLTokensParser {
 		return false;
 	}
 
-	List<FormatterToken> parse(final String argSql) {
+	/** Starts tokenizing the given script, whose tokens are then returned one at a time by {@link #next()}. */
+	void reset(final String argSql) {
 		fPos = 0;
 		fBefore = argSql;
+	}
+
+	/** Returns the next token of the script, or a token of type {@link TokenType#END} once there are no more. */
+	FormatterToken next() {
+		return nextToken();
+	}
+
+	List<FormatterToken> parse(final String argSql) {
+		reset(argSql);
 
 		final List<FormatterToken> list = new ArrayList<>();
 		for (;;) {
-			final FormatterToken token = nextToken();
+			final FormatterToken token = next();
 			if (token.getType() == TokenType.END) {
 				break;
 			}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.sql.dbeaver;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list of tokens backed by a gap buffer, so that adding or removing a token next to the previous
+ * edit is O(1), rather than O(n) as with an {@link java.util.ArrayList}.  Every pass of
+ * {@link SQLTokenizedFormatter} walks the tokens in order and only edits at its cursor, so each
+ * pass is linear in the number of tokens.
+ */
+final class TokenBuffer extends AbstractList<FormatterToken> implements RandomAccess {
+	private FormatterToken[] tokens;
+	/** The gap is the empty region [gapStart, gapEnd) of the array. */
+	private int gapStart, gapEnd;
+
+	TokenBuffer(int capacity) {
+		tokens = new FormatterToken[Math.max(capacity, 16)];
+		gapStart = 0;
+		gapEnd = tokens.length;
+	}
+
+	@Override
+	public int size() {
+		return tokens.length - (gapEnd - gapStart);
+	}
+
+	@Override
+	public FormatterToken get(int index) {
+		return tokens[physical(index)];
+	}
+
+	@Override
+	public FormatterToken set(int index, FormatterToken token) {
+		int physical = physical(index);
+		FormatterToken previous = tokens[physical];
+		tokens[physical] = token;
+		return previous;
+	}
+
+	@Override
+	public void add(int index, FormatterToken token) {
+		if (index < 0 || index > size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		if (gapStart == gapEnd) {
+			grow();
+		}
+		moveGapTo(index);
+		tokens[gapStart++] = token;
+		modCount++;
+	}
+
+	@Override
+	public FormatterToken remove(int index) {
+		checkIndex(index);
+		moveGapTo(index);
+		FormatterToken removed = tokens[gapEnd];
+		tokens[gapEnd++] = null;
+		modCount++;
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(tokens, null);
+		gapStart = 0;
+		gapEnd = tokens.length;
+		modCount++;
+	}
+
+	private int physical(int index) {
+		checkIndex(index);
+		return index < gapStart ? index : index + (gapEnd - gapStart);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+	}
+
+	/** Moves the gap so that it starts at the given index, which costs the distance it moves. */
+	private void moveGapTo(int index) {
+		if (index < gapStart) {
+			int count = gapStart - index;
+			System.arraycopy(tokens, index, tokens, gapEnd - count, count);
+			Arrays.fill(tokens, index, Math.min(gapStart, gapEnd - count), null);
+			gapStart = index;
+			gapEnd -= count;
+		} else if (index > gapStart) {
+			int count = index - gapStart;
+			System.arraycopy(tokens, gapEnd, tokens, gapStart, count);
+			Arrays.fill(tokens, Math.max(gapEnd, index), gapEnd + count, null);
+			gapStart = index;
+			gapEnd += count;
+		}
+	}
+
+	private void grow() {
+		FormatterToken[] grown = new FormatterToken[tokens.length * 2];
+		int tail = tokens.length - gapEnd;
+		System.arraycopy(tokens, 0, grown, 0, gapStart);
+		System.arraycopy(tokens, gapEnd, grown, grown.length - tail, tail);
+		gapEnd = grown.length - tail;
+		tokens = grown;
+	}
+}
@@ -64,6 +64,23 @@ app.post("/prettier/format", (req, res) => {
 	res.send(formatted_file_content);
 });
 
+// formats many files in one request, see FormatBatchProtocol.java for the response format
+app.post("/prettier/format-batch", (req, res) => {
+	var files = req.body.files || [];
+	var response = "";
+	files.forEach(format_data => {
+		try {
+			var formatted_file_content = prettier.format(format_data.file_content, format_data.config_options);
+			response += "ok " + formatted_file_content.length + "\n" + formatted_file_content;
+		} catch(err) {
+			var message = "Error while formatting: " + err;
+			response += "error " + message.length + "\n" + message;
+		}
+	});
+	res.set("Content-Type", "text/plain");
+	res.send(response);
+});
+
 var mergeConfigOptions = function(resolved_config_options, config_options) {
 	if (resolved_config_options !== undefined && config_options !== undefined) {
 		return extend(resolved_config_options, config_options);
@@ -59,3 +59,22 @@ app.post("/tsfmt/format", (req, res) => {
 		res.status(501).send(reason);
 	});
 });
+
+// formats many files in one request, see FormatBatchProtocol.java for the response format
+app.post("/tsfmt/format-batch", (req, res) => {
+	var files = req.body.files || [];
+	Promise.all(files.map(format_data => {
+		return tsfmt.processString("spotless-format-string.ts", format_data.file_content, format_data.config_options).then(resultMap => {
+			if (resultMap.error !== undefined && resultMap.error) {
+				return "error " + resultMap.message.length + "\n" + resultMap.message;
+			}
+			return "ok " + resultMap.dest.length + "\n" + resultMap.dest;
+		}).catch(reason => {
+			var message = "" + reason;
+			return "error " + message.length + "\n" + message;
+		});
+	})).then(results => {
+		res.set("Content-Type", "text/plain");
+		res.send(results.join(""));
+	});
+});
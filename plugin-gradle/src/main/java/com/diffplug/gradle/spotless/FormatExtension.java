@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -49,6 +49,7 @@ import com.diffplug.spotless.LineEnding;
 import com.diffplug.spotless.Provisioner;
 import com.diffplug.spotless.cpp.ClangFormatStep;
 import com.diffplug.spotless.extra.EclipseBasedStepBuilder;
+import com.diffplug.spotless.extra.GitYearIndex;
 import com.diffplug.spotless.extra.wtp.EclipseWtpFormatterStep;
 import com.diffplug.spotless.generic.EndWithNewlineStep;
 import com.diffplug.spotless.generic.IndentStep;
@@ -133,6 +134,37 @@ public class FormatExtension {
 		setRatchetFrom(ratchetFrom);
 	}
 
+	int parallelWorkers = 1;
+	int parallelBatchSize = SpotlessTask.DEFAULT_PARALLEL_BATCH_SIZE;
+
+	/**
+	 * Formats the files of this format on the given number of threads, which take
+	 * `batchSize` files at a time.  Each thread gets its own copy of every step's
+	 * formatter function, so custom steps must be safe to call from multiple threads.
+	 * Steps which can format many files in one call (e.g. prettier) get `batchSize`
+	 * files at a time, even with a single thread.
+	 */
+	public void parallel(int workers, int batchSize) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("workers must be at least 1, was " + workers);
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1, was " + batchSize);
+		}
+		this.parallelWorkers = workers;
+		this.parallelBatchSize = batchSize;
+	}
+
+	/** @see #parallel(int, int) */
+	public void parallel(int workers) {
+		parallel(workers, SpotlessTask.DEFAULT_PARALLEL_BATCH_SIZE);
+	}
+
+	/** Formats the files of this format on one thread per available processor. @see #parallel(int, int) */
+	public void parallel() {
+		parallel(Runtime.getRuntime().availableProcessors());
+	}
+
 	/** Sets the encoding to use (defaults to {@link SpotlessExtensionImpl#getEncoding()}. */
 	public void setEncoding(Charset charset) {
 		encoding = Objects.requireNonNull(charset);
@@ -452,7 +484,7 @@ public class FormatExtension {
 		}
 
 		FormatterStep createStep() {
-			return builder.withYearModeLazy(() -> {
+			return builder.withYearsFromGit(GitYearIndex.shared()).withYearModeLazy(() -> {
 				if ("true".equals(spotless.project.findProperty(LicenseHeaderStep.FLAG_SET_LICENSE_HEADER_YEARS_FROM_GIT_HISTORY()))) {
 					return YearMode.SET_FROM_GIT;
 				} else {
@@ -739,6 +771,11 @@ public class FormatExtension {
 		}
 		task.setSteps(steps);
 		task.setLineEndingsPolicy(getLineEndings().createPolicy(getProject().getProjectDir(), () -> totalTarget));
+		task.setParallel(parallelWorkers, parallelBatchSize);
+		task.setStepMetrics(spotless.stepMetrics);
+		if (spotless.resultCacheDir != null) {
+			task.setResultCache(spotless.resultCacheDir, spotless.resultCacheMaxSize);
+		}
 		if (spotless.project != spotless.project.getRootProject()) {
 			spotless.getRegisterDependenciesTask().hookSubprojectTask(task);
 		}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,7 @@ package com.diffplug.gradle.spotless;
 
 import static java.util.Objects.requireNonNull;
 
+import java.io.File;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
@@ -102,6 +103,35 @@ public abstract class SpotlessExtension {
 		setRatchetFrom(ratchetFrom);
 	}
 
+	@Nullable
+	File resultCacheDir;
+	long resultCacheMaxSize;
+
+	/**
+	 * Caches the result of formatting each file in the given directory, keyed on the configuration of the
+	 * format and the content of the file, so that the same file is never formatted twice with the same steps.
+	 * The directory can be shared between projects and builds, e.g. `resultCache("${gradle.gradleUserHomeDir}/spotless-results", 512)`,
+	 * and the least-recently-used results are evicted once it grows beyond the given size.
+	 */
+	public void resultCache(Object directory, long maxSizeMB) {
+		if (maxSizeMB <= 0) {
+			throw new IllegalArgumentException("maxSizeMB must be positive, was " + maxSizeMB);
+		}
+		this.resultCacheDir = project.file(requireNonNull(directory));
+		this.resultCacheMaxSize = maxSizeMB * 1024 * 1024;
+	}
+
+	boolean stepMetrics;
+
+	/**
+	 * Reports how long each step of each format takes: a table in the build output, a custom value in the
+	 * build scan (if there is one), and a JSON file in `build/spotless-metrics`.  Without this, the table
+	 * is only logged with `--info`.
+	 */
+	public void stepMetrics() {
+		this.stepMetrics = true;
+	}
+
 	final Map<String, FormatExtension> formats = new LinkedHashMap<>();
 
 	/** Configures the special java-specific extension. */
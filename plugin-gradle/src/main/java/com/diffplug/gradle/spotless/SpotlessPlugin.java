@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,11 +15,15 @@
  */
 package com.diffplug.gradle.spotless;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.plugins.BasePlugin;
 
+import com.diffplug.spotless.FileSignature;
 import com.diffplug.spotless.SpotlessCache;
 
 public class SpotlessPlugin implements Plugin<Project> {
@@ -38,6 +42,14 @@ public class SpotlessPlugin implements Plugin<Project> {
 		// make sure there's a `clean` task
 		project.getPlugins().apply(BasePlugin.class);
 
+		// share file hashes between daemons, so that a fresh daemon doesn't hash every formatter jar again
+		File fileSignatures = new File(project.getGradle().getGradleUserHomeDir(), "caches/spotless/file-signatures");
+		try {
+			FileSignature.persistCacheTo(fileSignatures);
+		} catch (IOException e) {
+			project.getLogger().warn("Unable to use " + fileSignatures + " to cache file signatures", e);
+		}
+
 		// setup the extension
 		project.getExtensions().create(SpotlessExtension.class, SpotlessExtension.EXTENSION, SpotlessExtensionImpl.class, project);
 
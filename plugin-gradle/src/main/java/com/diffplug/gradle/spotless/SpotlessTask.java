@@ -1,5 +1,5 @@
 /*
- * Copyright 2020 DiffPlug
+ * Copyright 2020-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -118,6 +118,73 @@ public class SpotlessTask extends DefaultTask {
 		return exceptionPolicy;
 	}
 
+	/** Number of threads which format files in parallel, where 1 (the default) means format on the task's own thread. */
+	protected int parallelWorkers = 1;
+
+	/** Number of files which a worker takes at once when formatting in parallel. */
+	protected int parallelBatchSize = DEFAULT_PARALLEL_BATCH_SIZE;
+
+	static final int DEFAULT_PARALLEL_BATCH_SIZE = 64;
+
+	/** Formats the target files on the given number of threads, handing them out (and prefetching them) in batches of the given size. */
+	public void setParallel(int workers, int batchSize) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("workers must be at least 1, was " + workers);
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1, was " + batchSize);
+		}
+		this.parallelWorkers = workers;
+		this.parallelBatchSize = batchSize;
+	}
+
+	/** Parallelism doesn't change the result, so it is not an input. */
+	@Internal
+	public int getParallelWorkers() {
+		return parallelWorkers;
+	}
+
+	@Internal
+	public int getParallelBatchSize() {
+		return parallelBatchSize;
+	}
+
+	/** Directory of the cache which is shared across builds, or null if there is no cache. */
+	@Nullable
+	protected File resultCacheDir;
+	protected long resultCacheMaxSize;
+
+	/** Consults (and fills) the given cache of formatting results before formatting any file. */
+	public void setResultCache(File directory, long maxSizeBytes) {
+		this.resultCacheDir = Objects.requireNonNull(directory);
+		this.resultCacheMaxSize = maxSizeBytes;
+	}
+
+	/** The cache only stores results which are keyed on every input, so it is not an input itself. */
+	@Internal
+	public @Nullable File getResultCacheDir() {
+		return resultCacheDir;
+	}
+
+	/** If true, the time taken by each step is reported in the build output, the build scan, and {@link #getStepMetricsFile()}. */
+	protected boolean stepMetrics;
+
+	public void setStepMetrics(boolean stepMetrics) {
+		this.stepMetrics = stepMetrics;
+	}
+
+	/** Metrics don't change the result, so they are not an input. */
+	@Internal
+	public boolean getStepMetrics() {
+		return stepMetrics;
+	}
+
+	/** The JSON file which the step metrics are written to, see {@link com.diffplug.spotless.StepMetrics#toJson()}. */
+	@Internal
+	public File getStepMetricsFile() {
+		return new File(getProject().getBuildDir(), "spotless-metrics/" + getName() + ".json");
+	}
+
 	protected FileCollection target;
 
 	@PathSensitive(PathSensitivity.RELATIVE)
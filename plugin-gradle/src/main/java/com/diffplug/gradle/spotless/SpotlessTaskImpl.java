@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,12 +17,25 @@ package com.diffplug.gradle.spotless;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 import org.gradle.api.GradleException;
+import org.gradle.api.Project;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.work.ChangeType;
@@ -30,8 +43,12 @@ import org.gradle.work.FileChange;
 import org.gradle.work.InputChanges;
 
 import com.diffplug.common.base.StringPrinter;
+import com.diffplug.spotless.DirtyStateCache;
 import com.diffplug.spotless.Formatter;
 import com.diffplug.spotless.PaddedCell;
+import com.diffplug.spotless.StepMetrics;
+import com.diffplug.spotless.ThrowingEx;
+import com.diffplug.spotless.extra.GitRatchet;
 
 @CacheableTask
 public class SpotlessTaskImpl extends SpotlessTask {
@@ -47,26 +64,132 @@ public class SpotlessTaskImpl extends SpotlessTask {
 			Files.createDirectories(outputDirectory.toPath());
 		}
 
-		try (Formatter formatter = buildFormatter()) {
+		StepMetrics metrics = stepMetrics || getLogger().isInfoEnabled() ? new StepMetrics(steps) : null;
+		try (DirtyStateCache resultCache = resultCacheDir == null ? null : DirtyStateCache.open(resultCacheDir, resultCacheMaxSize);
+				Formatter formatter = metrics == null ? buildFormatter() : buildFormatter().withStepMetrics(metrics)) {
+			List<File> toProcess = new ArrayList<>();
 			for (FileChange fileChange : inputs.getFileChanges(target)) {
 				File input = fileChange.getFile();
 				if (fileChange.getChangeType() == ChangeType.REMOVED) {
 					deletePreviousResult(input);
 				} else {
 					if (input.isFile()) {
-						processInputFile(formatter, input);
+						toProcess.add(input);
 					}
 				}
 			}
+			// one walk over the project, rather than one per file
+			GitRatchet<Project>.DirtyPaths ratchetDirty = ratchet == null || toProcess.isEmpty() ? null : ratchet.dirtyPathsOf(getProject(), rootTreeSha);
+			if (parallelWorkers <= 1 || toProcess.size() <= parallelBatchSize) {
+				for (int start = 0; start < toProcess.size(); start += parallelBatchSize) {
+					processBatch(formatter, resultCache, ratchetDirty, toProcess.subList(start, Math.min(start + parallelBatchSize, toProcess.size())));
+				}
+			} else {
+				processInParallel(formatter, resultCache, ratchetDirty, toProcess);
+			}
+		}
+		if (metrics != null && !metrics.isEmpty()) {
+			reportStepMetrics(metrics);
+		}
+	}
+
+	private void reportStepMetrics(StepMetrics metrics) throws IOException {
+		String summary = "Time spent in each step of " + getPath() + ":\n" + metrics.summary();
+		if (!stepMetrics) {
+			getLogger().info(summary);
+			return;
+		}
+		getLogger().lifecycle(summary);
+		metrics.writeJsonTo(getStepMetricsFile());
+		Object buildScan = getProject().getRootProject().getExtensions().findByName("buildScan");
+		if (buildScan != null) {
+			try {
+				// the build scan plugin isn't on our classpath, so we call it reflectively
+				Method value = buildScan.getClass().getMethod("value", String.class, String.class);
+				for (StepMetrics.Step step : metrics.steps()) {
+					value.invoke(buildScan, "spotless " + getPath() + " " + step.name(), step.calls() + " calls, "
+							+ TimeUnit.NANOSECONDS.toMillis(step.totalNanos()) + " ms total, "
+							+ TimeUnit.NANOSECONDS.toMillis(step.percentileNanos(0.99)) + " ms p99");
+				}
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				getLogger().debug("Unable to add the step metrics to the build scan", e);
+			}
+		}
+	}
+
+	/**
+	 * Hands the files out in batches to a bounded pool of threads.  Each thread formats with
+	 * its own {@link Formatter#copyForWorker()}, because a FormatterFunc is not thread-safe.
+	 */
+	private void processInParallel(Formatter formatter, @Nullable DirtyStateCache resultCache, @Nullable GitRatchet<Project>.DirtyPaths ratchetDirty, List<File> toProcess) throws Exception {
+		Queue<List<File>> batches = new ConcurrentLinkedQueue<>();
+		for (int start = 0; start < toProcess.size(); start += parallelBatchSize) {
+			batches.add(toProcess.subList(start, Math.min(start + parallelBatchSize, toProcess.size())));
+		}
+		int numWorkers = Math.min(parallelWorkers, batches.size());
+		getLogger().info("Formatting " + toProcess.size() + " files in " + batches.size() + " batches on " + numWorkers + " threads");
+		ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+		try {
+			List<Future<?>> workers = new ArrayList<>(numWorkers);
+			for (int i = 0; i < numWorkers; ++i) {
+				workers.add(executor.submit(() -> {
+					try (Formatter workerFormatter = formatter.copyForWorker()) {
+						List<File> batch;
+						while ((batch = batches.poll()) != null) {
+							processBatch(workerFormatter, resultCache, ratchetDirty, batch);
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> worker : workers) {
+				try {
+					worker.get();
+				} catch (ExecutionException e) {
+					// stop the other workers, and report the original failure
+					batches.clear();
+					if (e.getCause() instanceof Exception) {
+						throw (Exception) e.getCause();
+					} else {
+						throw ThrowingEx.unwrapCause(e);
+					}
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Processes a batch of files, after giving the steps which support it a chance to format
+	 * all of the files which need formatting in one go (see {@link Formatter#prefetch(List)}).
+	 */
+	private void processBatch(Formatter formatter, @Nullable DirtyStateCache resultCache, @Nullable GitRatchet<Project>.DirtyPaths ratchetDirty, List<File> batch) throws IOException {
+		boolean[] ratchetClean = new boolean[batch.size()];
+		List<File> toFormat = new ArrayList<>(batch.size());
+		for (int i = 0; i < batch.size(); ++i) {
+			ratchetClean[i] = ratchetDirty != null && ratchetDirty.isClean(batch.get(i));
+			if (!ratchetClean[i]) {
+				toFormat.add(batch.get(i));
+			}
+		}
+		if (resultCache == null) {
+			// with a result cache, most files won't need to be formatted at all
+			formatter.prefetch(toFormat);
+		}
+		for (int i = 0; i < batch.size(); ++i) {
+			processInputFile(formatter, resultCache, batch.get(i), ratchetClean[i]);
 		}
 	}
 
-	private void processInputFile(Formatter formatter, File input) throws IOException {
+	private void processInputFile(Formatter formatter, @Nullable DirtyStateCache resultCache, File input, boolean ratchetClean) throws IOException {
 		File output = getOutputFile(input);
 		getLogger().debug("Applying format to " + input + " and writing to " + output);
 		PaddedCell.DirtyState dirtyState;
-		if (ratchet != null && ratchet.isClean(getProject(), rootTreeSha, input)) {
+		if (ratchetClean) {
 			dirtyState = PaddedCell.isClean();
+		} else if (resultCache != null) {
+			dirtyState = resultCache.calculateDirtyState(formatter, input);
 		} else {
 			dirtyState = PaddedCell.calculateDirtyState(formatter, input);
 		}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ParallelTest extends GradleIntegrationHarness {
+	@Test
+	public void parallelWithToggle() throws IOException {
+		setFile("build.gradle").toLines(
+				"plugins {",
+				"    id 'com.diffplug.spotless'",
+				"}",
+				"spotless {",
+				"    format 'misc', {",
+				"        target '*.md'",
+				"        custom 'lowercase', { str -> str.toLowerCase(Locale.ROOT) }",
+				"        toggleOffOn()",
+				"        parallel(4, 2)",
+				"    }",
+				"}");
+		for (int i = 0; i < 20; ++i) {
+			setFile("file" + i + ".md").toLines("ABC" + i, "spotless:off", "DEF" + i, "spotless:on", "GHI" + i);
+		}
+		gradleRunner().withArguments("spotlessApply").build();
+		for (int i = 0; i < 20; ++i) {
+			assertFile("file" + i + ".md").hasLines("abc" + i, "spotless:off", "DEF" + i, "spotless:on", "ghi" + i);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,14 +19,22 @@ import static java.util.stream.Collectors.toList;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -45,9 +53,13 @@ import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.repository.RemoteRepository;
 
+import com.diffplug.spotless.DirtyStateCache;
+import com.diffplug.spotless.FileSignature;
 import com.diffplug.spotless.Formatter;
 import com.diffplug.spotless.LineEnding;
+import com.diffplug.spotless.PaddedCell;
 import com.diffplug.spotless.Provisioner;
+import com.diffplug.spotless.StepMetrics;
 import com.diffplug.spotless.generic.LicenseHeaderStep;
 import com.diffplug.spotless.maven.antlr4.Antlr4;
 import com.diffplug.spotless.maven.cpp.Cpp;
@@ -128,22 +140,262 @@ public abstract class AbstractSpotlessMojo extends AbstractMojo {
 	@Parameter(property = LicenseHeaderStep.spotlessSetLicenseHeaderYearsFromGitHistory)
 	private String setLicenseHeaderYearsFromGitHistory;
 
+	/** If true, files which were clean the last time they were checked, and haven't changed since, are skipped. */
+	@Parameter(property = "spotless.upToDateIndex", defaultValue = "false")
+	private boolean upToDateIndex;
+
+	/** The index for the formatter which is currently being executed, or null if {@link #upToDateIndex} is disabled. */
+	private FileIndex index;
+
+	/** Directory of a cache of formatting results, which can be shared between projects and builds. */
+	@Parameter(property = "spotless.resultCache")
+	private File resultCache;
+
+	@Parameter(property = "spotless.resultCacheMaxSizeMB", defaultValue = "512")
+	private long resultCacheMaxSizeMB;
+
+	/** The opened {@link #resultCache}, or null if there is no cache. */
+	private DirtyStateCache dirtyStateCache;
+
+	/** Number of threads which format files, each with its own copy of the formatter. */
+	@Parameter(property = "spotless.parallelism", defaultValue = "1")
+	private int parallelism;
+
+	/**
+	 * If true, a table of the time taken by each step of each formatter is logged, and written as JSON to
+	 * `${project.build.directory}/spotless-metrics`.  Without this, the table is only logged with `-X`.
+	 */
+	@Parameter(property = "spotless.stepMetrics", defaultValue = "false")
+	private boolean stepMetrics;
+
 	protected abstract void process(Iterable<File> files, Formatter formatter) throws MojoExecutionException;
 
+	/**
+	 * Handles the dirty state of a single file, and returns true if the file has a problem which should be reported.
+	 * Returning false for a dirty file means that the handler fixed it.
+	 */
+	protected interface DirtyStateHandler {
+		boolean handle(File file, PaddedCell.DirtyState dirtyState) throws IOException;
+	}
+
+	/**
+	 * Calculates the dirty state of each file and passes it to the given handler, using up to `parallelism`
+	 * threads which each format with their own {@link Formatter#copyForWorker()}.  Returns the files for which
+	 * the handler returned true, in the same order as they were given, regardless of `parallelism`.
+	 */
+	protected List<File> calculateDirtyStates(Iterable<File> files, Formatter formatter, DirtyStateHandler handler) throws MojoExecutionException {
+		List<File> fileList = new ArrayList<>();
+		files.forEach(fileList::add);
+		boolean[] hasProblem = new boolean[fileList.size()];
+
+		int numWorkers = Math.min(parallelism, fileList.size());
+		if (numWorkers <= 1) {
+			for (int start = 0; start < fileList.size(); start += BATCH_SIZE) {
+				calculateDirtyStates(fileList, start, formatter, handler, hasProblem);
+			}
+		} else {
+			AtomicInteger nextFile = new AtomicInteger();
+			ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+			try {
+				List<Future<?>> workers = new ArrayList<>(numWorkers);
+				for (int w = 0; w < numWorkers; ++w) {
+					workers.add(executor.submit(() -> {
+						try (Formatter workerFormatter = formatter.copyForWorker()) {
+							int start;
+							while ((start = nextFile.getAndAdd(BATCH_SIZE)) < hasProblem.length) {
+								calculateDirtyStates(fileList, start, workerFormatter, handler, hasProblem);
+							}
+						}
+						return null;
+					}));
+				}
+				for (Future<?> worker : workers) {
+					worker.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MojoExecutionException("Interrupted while formatting files", e);
+			} catch (ExecutionException e) {
+				// stop the other workers, and report the original failure
+				nextFile.set(hasProblem.length);
+				if (e.getCause() instanceof MojoExecutionException) {
+					throw (MojoExecutionException) e.getCause();
+				} else {
+					throw new MojoExecutionException("Unable to format files", e.getCause());
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		List<File> problemFiles = new ArrayList<>();
+		for (int i = 0; i < hasProblem.length; ++i) {
+			if (hasProblem[i]) {
+				problemFiles.add(fileList.get(i));
+			}
+		}
+		return problemFiles;
+	}
+
+	/** Files are handed to the workers, and to steps which can format many files in one call, in batches of this size. */
+	private static final int BATCH_SIZE = 64;
+
+	/** Calculates the dirty state of the batch which begins at `start`, see {@link Formatter#prefetch(List)}. */
+	private void calculateDirtyStates(List<File> fileList, int start, Formatter formatter, DirtyStateHandler handler, boolean[] hasProblem) throws MojoExecutionException {
+		List<File> batch = fileList.subList(start, Math.min(start + BATCH_SIZE, fileList.size()));
+		if (dirtyStateCache == null) {
+			// with a result cache, most files won't need to be formatted at all
+			try {
+				formatter.prefetch(batch);
+			} catch (IOException e) {
+				throw new MojoExecutionException("Unable to format files", e);
+			}
+		}
+		for (int i = 0; i < batch.size(); ++i) {
+			hasProblem[start + i] = calculateDirtyState(batch.get(i), formatter, handler);
+		}
+	}
+
+	private boolean calculateDirtyState(File file, Formatter formatter, DirtyStateHandler handler) throws MojoExecutionException {
+		try {
+			FileIndex.Stat stat = index != null ? FileIndex.stat(file) : null;
+			byte[] rawBytes = Files.readAllBytes(file.toPath());
+			PaddedCell.DirtyState dirtyState = dirtyStateCache != null
+					? dirtyStateCache.calculateDirtyState(formatter, file, rawBytes)
+					: PaddedCell.calculateDirtyState(formatter, file, rawBytes);
+			boolean hasProblem = handler.handle(file, dirtyState);
+			if (index != null) {
+				if (dirtyState.isClean()) {
+					index.setClean(file, stat, rawBytes);
+				} else if (!hasProblem && !dirtyState.didNotConverge()) {
+					index.setClean(file);
+				}
+			}
+			return hasProblem;
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to format file " + file, e);
+		}
+	}
+
 	@Override
 	public final void execute() throws MojoExecutionException {
 		List<FormatterFactory> formatterFactories = getFormatterFactories();
-		for (FormatterFactory formatterFactory : formatterFactories) {
-			execute(formatterFactory);
+		Set<Path> usedIndexFiles = new HashSet<>();
+		persistFileSignatures();
+		try (DirtyStateCache cache = resultCache == null ? null : DirtyStateCache.open(resultCache, resultCacheMaxSizeMB * 1024 * 1024)) {
+			dirtyStateCache = cache;
+			Set<String> metricsNames = new HashSet<>();
+			for (FormatterFactory formatterFactory : formatterFactories) {
+				execute(formatterFactory, usedIndexFiles, metricsNames);
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to open or update the result cache in " + resultCache, e);
+		} finally {
+			dirtyStateCache = null;
+		}
+		if (upToDateIndex) {
+			deleteUnusedIndexFiles(usedIndexFiles);
 		}
 	}
 
-	private void execute(FormatterFactory formatterFactory) throws MojoExecutionException {
+	/** Shares file hashes between builds, so that every build doesn't hash every formatter jar again. */
+	private void persistFileSignatures() {
+		File fileSignatures = new File(repositorySystemSession.getLocalRepository().getBasedir(), ".cache/spotless/file-signatures");
+		try {
+			FileSignature.persistCacheTo(fileSignatures);
+		} catch (IOException e) {
+			getLog().warn("Unable to use " + fileSignatures + " to cache file signatures", e);
+		}
+	}
+
+	private void execute(FormatterFactory formatterFactory, Set<Path> usedIndexFiles, Set<String> metricsNames) throws MojoExecutionException {
 		FormatterConfig config = getFormatterConfig();
 		List<File> files = collectFiles(formatterFactory, config);
 
-		try (Formatter formatter = formatterFactory.newFormatter(files, config)) {
-			process(files, formatter);
+		StepMetrics metrics = null;
+		try (Formatter unmeasured = formatterFactory.newFormatter(files, config)) {
+			Formatter formatter = unmeasured;
+			if (stepMetrics || getLog().isDebugEnabled()) {
+				metrics = new StepMetrics(unmeasured.getSteps());
+				formatter = unmeasured.withStepMetrics(metrics);
+			}
+			if (upToDateIndex) {
+				Path indexFile = FileIndex.indexFileFor(indexDir(), formatter);
+				usedIndexFiles.add(indexFile);
+				index = FileIndex.read(indexFile, baseDir.toPath());
+				files = filterUpToDate(files);
+			}
+			try {
+				process(files, formatter);
+			} finally {
+				if (index != null) {
+					index.write();
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to read or write the up-to-date index", e);
+		} finally {
+			index = null;
+		}
+		if (metrics != null && !metrics.isEmpty()) {
+			reportStepMetrics(metricsName(formatterFactory, metricsNames), metrics);
+		}
+	}
+
+	/** Returns a name for the formatter's metrics which is unique within this execution, e.g. `java` or `format-2`. */
+	private static String metricsName(FormatterFactory formatterFactory, Set<String> metricsNames) {
+		String base = formatterFactory.getClass().getSimpleName().toLowerCase(Locale.ROOT);
+		String name = base;
+		for (int i = 2; !metricsNames.add(name); ++i) {
+			name = base + "-" + i;
+		}
+		return name;
+	}
+
+	private void reportStepMetrics(String name, StepMetrics metrics) throws MojoExecutionException {
+		String summary = "Time spent in each step of " + name + ":\n" + metrics.summary();
+		if (!stepMetrics) {
+			getLog().debug(summary);
+			return;
+		}
+		getLog().info(summary);
+		File metricsFile = new File(buildDir, "spotless-metrics/" + name + ".json");
+		try {
+			metrics.writeJsonTo(metricsFile);
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to write the step metrics to " + metricsFile, e);
+		}
+	}
+
+	private Path indexDir() {
+		return buildDir.toPath().resolve("spotless-index");
+	}
+
+	private List<File> filterUpToDate(List<File> files) throws IOException {
+		List<File> notUpToDate = new ArrayList<>(files.size());
+		for (File file : files) {
+			if (!index.isUpToDate(file)) {
+				notUpToDate.add(file);
+			}
+		}
+		getLog().debug("Skipping " + (files.size() - notUpToDate.size()) + " up-to-date files of " + files.size());
+		return notUpToDate;
+	}
+
+	/** Removes index files for formatters which are no longer configured. */
+	private void deleteUnusedIndexFiles(Set<Path> usedIndexFiles) throws MojoExecutionException {
+		Path indexDir = indexDir();
+		if (!Files.isDirectory(indexDir)) {
+			return;
+		}
+		try (Stream<Path> indexFiles = Files.list(indexDir)) {
+			for (Path indexFile : (Iterable<Path>) indexFiles::iterator) {
+				if (!usedIndexFiles.contains(indexFile)) {
+					Files.deleteIfExists(indexFile);
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to clean up the up-to-date index in " + indexDir, e);
 		}
 	}
 
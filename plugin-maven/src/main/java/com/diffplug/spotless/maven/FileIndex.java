@@ -0,0 +1,235 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.maven;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.diffplug.spotless.FileSignature;
+import com.diffplug.spotless.Formatter;
+
+/**
+ * An on-disk record of the files which were clean the last time they were checked by a given formatter.
+ *
+ * Each formatter gets its own index file, named after a hash of the serialized formatter (its steps,
+ * encoding, line endings, etc).  A file is up-to-date if its size and last-modified time match the
+ * index entry, in which case it is skipped without being read.  If only the last-modified time differs,
+ * then the content hash decides, so that touching a file doesn't cause it to be formatted again.
+ *
+ * Like git's index, a last-modified time which is not older than the index file itself is "racy": the
+ * file might have been modified again within the same timestamp tick after it was recorded, so such an
+ * entry is always confirmed by its content hash rather than trusted.
+ */
+final class FileIndex {
+	private static final String HEADER = "spotless-index v1";
+
+	private final Path indexFile;
+	private final Path baseDir;
+	private final Map<String, Entry> entries;
+	/** The last-modified time of the index file when it was read, or {@link Long#MIN_VALUE} if it didn't exist. */
+	private final long indexLastModified;
+	private volatile boolean modified;
+
+	private FileIndex(Path indexFile, Path baseDir, Map<String, Entry> entries, long indexLastModified) {
+		this.indexFile = indexFile;
+		this.baseDir = baseDir;
+		this.entries = entries;
+		this.indexLastModified = indexLastModified;
+	}
+
+	/** Returns the path of the index file for the given formatter within the given index directory. */
+	static Path indexFileFor(Path indexDir, Formatter formatter) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+			output.writeObject(formatter);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to serialize formatter", e);
+		}
+		return indexDir.resolve(toHex(sha256(bytes.toByteArray())));
+	}
+
+	/** Reads the given index file, or returns an empty index if it doesn't exist or can't be parsed. */
+	static FileIndex read(Path indexFile, Path baseDir) throws IOException {
+		Map<String, Entry> entries = new ConcurrentHashMap<>();
+		List<String> lines;
+		long indexLastModified;
+		try {
+			// stat before reading, so that a concurrent rewrite can only make us more cautious
+			indexLastModified = Files.getLastModifiedTime(indexFile).toMillis();
+			lines = Files.readAllLines(indexFile, UTF_8);
+		} catch (NoSuchFileException e) {
+			return new FileIndex(indexFile, baseDir, entries, Long.MIN_VALUE);
+		}
+		if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+			return new FileIndex(indexFile, baseDir, entries, indexLastModified);
+		}
+		for (String line : lines.subList(1, lines.size())) {
+			String[] parts = line.split(" ", 4);
+			if (parts.length != 4) {
+				// the index is only an optimization, so a corrupt index is just an empty one
+				entries.clear();
+				break;
+			}
+			entries.put(parts[3], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+		}
+		return new FileIndex(indexFile, baseDir, entries, indexLastModified);
+	}
+
+	/** Returns true if the given file was clean when it was last checked, and hasn't changed since. */
+	boolean isUpToDate(File file) throws IOException {
+		String key = keyFor(file);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return false;
+		}
+		Stat stat = stat(file);
+		if (entry.size != stat.size) {
+			return false;
+		} else if (entry.lastModified == stat.lastModified && stat.lastModified < indexLastModified) {
+			return true;
+		} else if (entry.hash.equals(toHex(sha256(Files.readAllBytes(file.toPath()))))) {
+			if (entry.lastModified != stat.lastModified) {
+				// touched but not changed, so it's still clean
+				entries.put(key, new Entry(entry.size, stat.lastModified, entry.hash));
+				modified = true;
+			}
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/** Returns the size and last-modified time of the given file, to be taken <em>before</em> its content is read. */
+	static Stat stat(File file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		return new Stat(attributes.size(), attributes.lastModifiedTime().toMillis());
+	}
+
+	/**
+	 * Records that the given file is clean, and that its content is the given bytes, which were read
+	 * after taking the given stat.  If the file has changed since then, nothing is recorded.
+	 */
+	void setClean(File file, Stat before, byte[] content) throws IOException {
+		if (before.size != content.length || !before.equals(stat(file))) {
+			// changed while or since it was read, so we don't know whether it's clean
+			return;
+		}
+		entries.put(keyFor(file), new Entry(before.size, before.lastModified, toHex(sha256(content))));
+		modified = true;
+	}
+
+	/** Records that the given file is clean, reading its current content from disk. */
+	void setClean(File file) throws IOException {
+		Stat before = stat(file);
+		setClean(file, before, Files.readAllBytes(file.toPath()));
+	}
+
+	/** Writes the index to disk if it has changed, replacing the previous index atomically. */
+	void write() throws IOException {
+		if (!modified) {
+			return;
+		}
+		Files.createDirectories(indexFile.getParent());
+		Path tmpFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+		try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, UTF_8)) {
+			writer.write(HEADER);
+			writer.write('\n');
+			for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+				Entry value = entry.getValue();
+				writer.write(value.size + " " + value.lastModified + " " + value.hash + " " + entry.getKey());
+				writer.write('\n');
+			}
+		}
+		Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		modified = false;
+	}
+
+	private String keyFor(File file) {
+		return FileSignature.pathNativeToUnix(baseDir.relativize(file.toPath()).toString());
+	}
+
+	/** The size and last-modified time of a file at some instant. */
+	static final class Stat {
+		final long size;
+		final long lastModified;
+
+		private Stat(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			} else if (!(other instanceof Stat)) {
+				return false;
+			}
+			Stat that = (Stat) other;
+			return size == that.size && lastModified == that.lastModified;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(size) * 31 + Long.hashCode(lastModified);
+		}
+	}
+
+	private static final class Entry {
+		final long size;
+		final long lastModified;
+		final String hash;
+
+		Entry(long size, long lastModified, String hash) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+	}
+
+	private static byte[] sha256(byte[] content) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(content);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 digest algorithm not available", e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,14 +16,12 @@
 package com.diffplug.spotless.maven;
 
 import java.io.File;
-import java.io.IOException;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
 import com.diffplug.spotless.Formatter;
-import com.diffplug.spotless.PaddedCell;
 
 /**
  * Performs formatting of all source files according to configured formatters.
@@ -40,15 +38,11 @@ public class SpotlessApplyMojo extends AbstractSpotlessMojo {
 			return;
 		}
 
-		for (File file : files) {
-			try {
-				PaddedCell.DirtyState dirtyState = PaddedCell.calculateDirtyState(formatter, file);
-				if (!dirtyState.isClean() && !dirtyState.didNotConverge()) {
-					dirtyState.writeCanonicalTo(file);
-				}
-			} catch (IOException e) {
-				throw new MojoExecutionException("Unable to format file " + file, e);
+		calculateDirtyStates(files, formatter, (file, dirtyState) -> {
+			if (!dirtyState.isClean() && !dirtyState.didNotConverge()) {
+				dirtyState.writeCanonicalTo(file);
 			}
-		}
+			return false;
+		});
 	}
 }
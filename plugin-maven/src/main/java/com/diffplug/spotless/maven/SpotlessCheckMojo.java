@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,8 +16,6 @@
 package com.diffplug.spotless.maven;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.maven.plugin.MojoExecutionException;
@@ -26,7 +24,6 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
 import com.diffplug.spotless.Formatter;
-import com.diffplug.spotless.PaddedCell;
 import com.diffplug.spotless.extra.integration.DiffMessageFormatter;
 
 /**
@@ -46,17 +43,8 @@ public class SpotlessCheckMojo extends AbstractSpotlessMojo {
 			return;
 		}
 
-		List<File> problemFiles = new ArrayList<>();
-		for (File file : files) {
-			try {
-				PaddedCell.DirtyState dirtyState = PaddedCell.calculateDirtyState(formatter, file);
-				if (!dirtyState.isClean() && !dirtyState.didNotConverge()) {
-					problemFiles.add(file);
-				}
-			} catch (IOException e) {
-				throw new MojoExecutionException("Unable to format file " + file, e);
-			}
-		}
+		List<File> problemFiles = calculateDirtyStates(files, formatter,
+				(file, dirtyState) -> !dirtyState.isClean() && !dirtyState.didNotConverge());
 
 		if (!problemFiles.isEmpty()) {
 			throw new MojoExecutionException(DiffMessageFormatter.builder()
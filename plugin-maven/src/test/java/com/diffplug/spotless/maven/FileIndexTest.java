@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.maven;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class FileIndexTest extends MavenIntegrationHarness {
+	private static final String PATH = "src/main/java/test.java";
+
+	@Test
+	public void cleanFilesAreIndexed() throws Exception {
+		writePomWithFormatSteps("<trimTrailingWhitespace />");
+		setFile(PATH).toContent("dirty    ");
+
+		mavenRunner().withArguments("spotless:apply", "-Dspotless.upToDateIndex=true").runNoError();
+		assertFile(PATH).hasContent("dirty");
+		assertThat(indexContent()).contains(PATH);
+
+		mavenRunner().withArguments("spotless:check", "-Dspotless.upToDateIndex=true").runNoError();
+
+		// a changed file is checked again
+		setFile(PATH).toContent("dirty again    ");
+		mavenRunner().withArguments("spotless:check", "-Dspotless.upToDateIndex=true").runHasError();
+	}
+
+	@Test
+	public void indexForOldConfigurationIsRemoved() throws Exception {
+		writePomWithFormatSteps("<trimTrailingWhitespace />");
+		setFile(PATH).toContent("clean");
+		mavenRunner().withArguments("spotless:check", "-Dspotless.upToDateIndex=true").runNoError();
+		String before = indexFile().getName();
+
+		writePomWithFormatSteps("<trimTrailingWhitespace />", "<endWithNewline />");
+		setFile(PATH).toContent("clean\n");
+		mavenRunner().withArguments("spotless:check", "-Dspotless.upToDateIndex=true").runNoError();
+		assertThat(indexFile().getName()).isNotEqualTo(before);
+	}
+
+	private File indexFile() {
+		File[] indexFiles = new File(rootFolder(), "target/spotless-index").listFiles();
+		assertThat(indexFiles).hasSize(1);
+		return indexFiles[0];
+	}
+
+	private String indexContent() throws Exception {
+		return new String(Files.readAllBytes(indexFile().toPath()), StandardCharsets.UTF_8);
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016-2020 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -38,6 +38,13 @@ public class SpotlessCheckMojoTest extends MavenIntegrationHarness {
 		testSpotlessCheck(FORMATTED_FILE, "spotless:check", false);
 	}
 
+	@Test
+	public void testSpotlessCheckWithFormattingViolationsInParallel() throws Exception {
+		writePomWithJavaLicenseHeaderStep();
+		setFile("src/main/java/com.github.youribonnaffe.gradle.format/Clean.java").toResource(FORMATTED_FILE);
+		testSpotlessCheck(UNFORMATTED_FILE, "spotless:check -Dspotless.parallelism=4", true);
+	}
+
 	@Test
 	public void testSkipSpotlessCheckWithFormattingViolations() throws Exception {
 		writePomWithJavaLicenseHeaderStep();
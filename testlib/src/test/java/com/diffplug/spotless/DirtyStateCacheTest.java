@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class DirtyStateCacheTest extends ResourceHarness {
+	private final AtomicInteger numFormatted = new AtomicInteger();
+
+	private Formatter trimFormatter() {
+		FormatterStep step = FormatterStep.create("trim", "state", state -> input -> {
+			numFormatted.incrementAndGet();
+			return input.trim();
+		});
+		return Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(step))
+				.build();
+	}
+
+	@Test
+	public void cachesCleanAndDirty() throws IOException {
+		File cacheDir = newFolder("cache");
+		File clean = setFile("src/clean.txt").toContent("clean");
+		File dirty = setFile("src/dirty.txt").toContent("  dirty  ");
+
+		try (Formatter formatter = trimFormatter()) {
+			DirtyStateCache cache = DirtyStateCache.open(cacheDir, 1024 * 1024);
+			assertThat(cache.calculateDirtyState(formatter, clean).isClean()).isTrue();
+			assertThat(canonical(cache.calculateDirtyState(formatter, dirty))).isEqualTo("dirty");
+			int formattedFirstTime = numFormatted.get();
+
+			// a second cache in the same directory, like a later build would have
+			DirtyStateCache reopened = DirtyStateCache.open(cacheDir, 1024 * 1024);
+			assertThat(reopened.calculateDirtyState(formatter, clean).isClean()).isTrue();
+			assertThat(canonical(reopened.calculateDirtyState(formatter, dirty))).isEqualTo("dirty");
+			assertThat(numFormatted.get()).isEqualTo(formattedFirstTime);
+
+			// changing the content is a cache miss
+			setFile("src/dirty.txt").toContent(" still dirty ");
+			assertThat(canonical(reopened.calculateDirtyState(formatter, dirty))).isEqualTo("still dirty");
+			assertThat(numFormatted.get()).isGreaterThan(formattedFirstTime);
+		}
+	}
+
+	@Test
+	public void bypassedForStepsWhichAreNeverUpToDate() throws IOException {
+		File cacheDir = newFolder("cache");
+		File dirty = setFile("src/dirty.txt").toContent("  dirty  ");
+		FormatterStep step = FormatterStep.createNeverUpToDate("trim", input -> {
+			numFormatted.incrementAndGet();
+			return input.trim();
+		});
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(step))
+				.build();
+				DirtyStateCache cache = DirtyStateCache.open(cacheDir, 1024 * 1024)) {
+			assertThat(canonical(cache.calculateDirtyState(formatter, dirty))).isEqualTo("dirty");
+			int formattedFirstTime = numFormatted.get();
+			assertThat(canonical(cache.calculateDirtyState(formatter, dirty))).isEqualTo("dirty");
+			assertThat(numFormatted.get()).isGreaterThan(formattedFirstTime);
+		}
+		assertThat(entries(cacheDir)).isEqualTo(0);
+	}
+
+	@Test
+	public void evictsWhenFull() throws IOException {
+		File cacheDir = newFolder("cache");
+		try (Formatter formatter = trimFormatter();
+				DirtyStateCache cache = DirtyStateCache.open(cacheDir, 10 * DirtyStateCache.diskUsage(1))) {
+			for (int i = 0; i < 20; ++i) {
+				File file = setFile("src/file" + i + ".txt").toContent(" dirty content " + i + " ");
+				cache.calculateDirtyState(formatter, file);
+			}
+		}
+		assertThat(entries(cacheDir)).isLessThanOrEqualTo(10);
+	}
+
+	@Test
+	public void recordsSizeForLaterBuilds() throws IOException {
+		File cacheDir = newFolder("cache");
+		try (Formatter formatter = trimFormatter()) {
+			try (DirtyStateCache cache = DirtyStateCache.open(cacheDir, 1024 * 1024)) {
+				cache.calculateDirtyState(formatter, setFile("src/a.txt").toContent(" a "));
+				cache.calculateDirtyState(formatter, setFile("src/b.txt").toContent(" b "));
+			}
+			try (DirtyStateCache cache = DirtyStateCache.open(cacheDir, 1024 * 1024)) {
+				cache.calculateDirtyState(formatter, setFile("src/c.txt").toContent(" c "));
+			}
+		}
+		// each entry takes up at least one block
+		assertThat(entries(cacheDir)).isEqualTo(3);
+		assertThat(new String(Files.readAllBytes(cacheDir.toPath().resolve("size")), StandardCharsets.UTF_8))
+				.isEqualTo(Long.toString(3 * DirtyStateCache.diskUsage(1)));
+	}
+
+	private static long entries(File cacheDir) throws IOException {
+		try (Stream<Path> entries = Files.walk(cacheDir.toPath(), 2)) {
+			return entries.filter(path -> path.getNameCount() == cacheDir.toPath().getNameCount() + 2).count();
+		}
+	}
+
+	private static String canonical(PaddedCell.DirtyState dirtyState) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		dirtyState.writeCanonicalTo(output);
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
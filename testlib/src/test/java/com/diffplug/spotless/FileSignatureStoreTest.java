@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+public class FileSignatureStoreTest extends ResourceHarness {
+	private static final byte[] HASH = {0, 1, 2, (byte) 0xAB, (byte) 0xFF};
+
+	@Test
+	public void persistsAcrossOpens() throws IOException {
+		String a = jar("a.jar");
+		File storeFile = new File(rootFolder(), "store/file-signatures");
+		FileSignatureStore store = FileSignatureStore.open(storeFile);
+		assertThat(store.get(a, 10, 100)).isNull();
+		store.put(a, 10, 100, HASH);
+		assertThat(store.get(a, 10, 100)).isEqualTo(HASH);
+
+		// a fresh JVM would open the same file
+		FileSignatureStore reopened = FileSignatureStore.open(storeFile);
+		assertThat(reopened.get(a, 10, 100)).isEqualTo(HASH);
+		// but only trusts it if the size and last-modified time still match
+		assertThat(reopened.get(a, 11, 100)).isNull();
+		assertThat(reopened.get(a, 10, 101)).isNull();
+	}
+
+	@Test
+	public void laterLinesWin() throws IOException {
+		String withSpace = jar("with space.jar");
+		File storeFile = new File(rootFolder(), "file-signatures");
+		FileSignatureStore store = FileSignatureStore.open(storeFile);
+		store.put(withSpace, 10, 100, new byte[]{1});
+		store.put(withSpace, 20, 200, HASH);
+
+		FileSignatureStore reopened = FileSignatureStore.open(storeFile);
+		assertThat(reopened.get(withSpace, 10, 100)).isNull();
+		assertThat(reopened.get(withSpace, 20, 200)).isEqualTo(HASH);
+	}
+
+	@Test
+	public void ignoresCorruptLines() throws IOException {
+		String a = jar("a.jar");
+		String b = jar("b.jar");
+		File storeFile = new File(rootFolder(), "file-signatures");
+		FileSignatureStore.open(storeFile).put(a, 10, 100, HASH);
+		Files.write(storeFile.toPath(), ("garbage\n10 100 nothex " + b + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		FileSignatureStore reopened = FileSignatureStore.open(storeFile);
+		assertThat(reopened.get(a, 10, 100)).isEqualTo(HASH);
+		assertThat(reopened.get(b, 10, 100)).isNull();
+	}
+
+	@Test
+	public void ignoresUnknownFormat() throws IOException {
+		String a = jar("a.jar");
+		File storeFile = setFile("file-signatures").toContent("some other format\n10 100 00 " + a + "\n");
+		FileSignatureStore store = FileSignatureStore.open(storeFile);
+		assertThat(store.get(a, 10, 100)).isNull();
+		assertThat(read(storeFile)).isEqualTo("spotless-file-signatures v1\n");
+	}
+
+	@Test
+	public void compactsStaleLines() throws IOException {
+		String a = jar("a.jar");
+		File storeFile = new File(rootFolder(), "file-signatures");
+		FileSignatureStore store = FileSignatureStore.open(storeFile);
+		for (int i = 0; i < 200; ++i) {
+			store.put(a, 10, i, HASH);
+		}
+		FileSignatureStore reopened = FileSignatureStore.open(storeFile);
+		assertThat(reopened.get(a, 10, 199)).isEqualTo(HASH);
+		assertThat(read(storeFile)).isEqualTo("spotless-file-signatures v1\n10 199 000102abff " + a + "\n");
+	}
+
+	@Test
+	public void forgetsFilesWhichNoLongerExist() throws IOException {
+		File storeFile = new File(rootFolder(), "file-signatures");
+		FileSignatureStore store = FileSignatureStore.open(storeFile);
+		for (int i = 0; i < 200; ++i) {
+			String jar = jar("jar" + i + ".jar");
+			store.put(jar, 10, 100, HASH);
+			Files.delete(new File(jar).toPath());
+		}
+		String kept = jar("kept.jar");
+		store.put(kept, 10, 100, HASH);
+
+		FileSignatureStore reopened = FileSignatureStore.open(storeFile);
+		assertThat(reopened.get(kept, 10, 100)).isEqualTo(HASH);
+		assertThat(read(storeFile)).isEqualTo("spotless-file-signatures v1\n10 100 000102abff " + kept + "\n");
+	}
+
+	@Test
+	public void racyEntriesAreHashedAgain() throws IOException {
+		String a = jar("a.jar");
+		File storeFile = new File(rootFolder(), "file-signatures");
+		FileSignatureStore store = FileSignatureStore.open(storeFile);
+		// modified no earlier than the store was written, so it might be modified again without changing its timestamp
+		long racy = Long.MAX_VALUE / 2;
+		store.put(a, 10, racy, HASH);
+		assertThat(store.get(a, 10, racy)).isNull();
+		assertThat(FileSignatureStore.open(storeFile).get(a, 10, racy)).isNull();
+	}
+
+	/** Returns the canonical path of a new file, because the store forgets the files which don't exist. */
+	private String jar(String name) throws IOException {
+		return setFile("jars/" + name).toContent(name).getCanonicalPath();
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,19 +15,26 @@
  */
 package com.diffplug.spotless;
 
+import java.io.File;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.assertj.core.api.Assertions;
 import org.junit.Test;
 
 import com.diffplug.common.base.StandardSystemProperty;
 import com.diffplug.spotless.generic.EndWithNewlineStep;
 
-public class FormatterTest {
+public class FormatterTest extends ResourceHarness {
 	// Formatter normally needs to be closed, but no resources will be leaked in this special case
 	@Test
 	public void equality() {
@@ -81,4 +88,112 @@ public class FormatterTest {
 			}
 		}.testEquals();
 	}
+
+	@Test
+	public void copyForWorker() throws Exception {
+		AtomicInteger funcsCreated = new AtomicInteger();
+		FormatterStep step = FormatterStep.create("count", "state", state -> {
+			funcsCreated.incrementAndGet();
+			return String::trim;
+		});
+		Path rootDir = Paths.get(StandardSystemProperty.USER_DIR.value());
+		File file = rootDir.resolve("file.txt").toFile();
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootDir)
+				.steps(Collections.singletonList(step))
+				.build();
+				Formatter copy = formatter.copyForWorker()) {
+			Assertions.assertThat(copy).isEqualTo(formatter);
+			Assertions.assertThat(formatter.compute(" a ", file)).isEqualTo("a");
+			Assertions.assertThat(copy.compute(" b ", file)).isEqualTo("b");
+			Assertions.assertThat(funcsCreated.get()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	public void prefetch() throws Exception {
+		AtomicInteger batches = new AtomicInteger();
+		AtomicInteger singles = new AtomicInteger();
+		AtomicInteger uppers = new AtomicInteger();
+		FormatterStep upper = FormatterStep.create("upper", "state", state -> input -> {
+			uppers.incrementAndGet();
+			return input.toUpperCase(Locale.ROOT);
+		});
+		FormatterStep trim = FormatterStep.create("trim", "state", state -> new FormatterFunc.Batch() {
+			@Override
+			public String apply(String input) {
+				singles.incrementAndGet();
+				return input.trim();
+			}
+
+			@Override
+			public List<String> applyBatch(List<String> unix, List<File> files) {
+				batches.incrementAndGet();
+				List<String> results = new ArrayList<>();
+				for (String input : unix) {
+					results.add(input.equals("FAIL") ? null : input.trim());
+				}
+				return results;
+			}
+		});
+		File a = setFile("a.txt").toContent(" a ");
+		File b = setFile("b.txt").toContent(" b ");
+		File c = setFile("c.txt").toContent("fail");
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Arrays.asList(upper, trim))
+				.build()) {
+			formatter.prefetch(Arrays.asList(a, b, c));
+			Assertions.assertThat(batches.get()).isEqualTo(1);
+			Assertions.assertThat(singles.get()).isEqualTo(0);
+			Assertions.assertThat(uppers.get()).isEqualTo(3);
+
+			// the steps before the batch step aren't run again
+			Assertions.assertThat(formatter.compute(" a ", a)).isEqualTo("A");
+			Assertions.assertThat(formatter.compute(" b ", b)).isEqualTo("B");
+			Assertions.assertThat(singles.get()).isEqualTo(0);
+			Assertions.assertThat(uppers.get()).isEqualTo(3);
+			// files which failed in the batch are formatted on their own
+			Assertions.assertThat(formatter.compute("fail", c)).isEqualTo("FAIL");
+			Assertions.assertThat(singles.get()).isEqualTo(1);
+			Assertions.assertThat(uppers.get()).isEqualTo(3);
+			// and prefetched results are only used once, for the same input
+			Assertions.assertThat(formatter.compute(" a ", a)).isEqualTo("A");
+			Assertions.assertThat(singles.get()).isEqualTo(2);
+			Assertions.assertThat(uppers.get()).isEqualTo(4);
+		}
+	}
+
+	@Test
+	public void isClean() throws Exception {
+		AtomicInteger formatted = new AtomicInteger();
+		FormatterStep trim = FormatterStep.create("trim", "state", state -> input -> {
+			formatted.incrementAndGet();
+			return input.trim() + "\n";
+		});
+		File clean = setFile("clean.txt").toContent("a\r\nb\r\n");
+		File unixEndings = setFile("unix.txt").toContent("a\nb\n");
+		File dirty = setFile("dirty.txt").toContent(" a\r\nb\r\n");
+		File badEncoding = setFile("bad.txt").toContent("a");
+		Files.write(badEncoding.toPath(), new byte[]{'a', (byte) 0xC3, '\r', '\n'});
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.WINDOWS.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(trim))
+				.build()) {
+			Assertions.assertThat(formatter.isClean(unixEndings)).isFalse();
+			Assertions.assertThat(formatter.isClean(badEncoding)).isFalse();
+			// neither of those needed the steps
+			Assertions.assertThat(formatted.get()).isEqualTo(0);
+			Assertions.assertThat(formatter.isClean(dirty)).isFalse();
+			Assertions.assertThat(formatter.isClean(clean)).isTrue();
+			Assertions.assertThat(formatted.get()).isEqualTo(2);
+
+		}
+	}
 }
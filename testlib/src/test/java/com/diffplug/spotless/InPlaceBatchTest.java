@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class InPlaceBatchTest extends ResourceHarness {
+	@Test
+	public void formatsInPlace() throws IOException, InterruptedException {
+		File config = setFile(".config").toContent("upper");
+		List<String> seenConfig = new ArrayList<>();
+		List<String> formatted = InPlaceBatch.format(Arrays.asList("a\n", "b\n"), Arrays.asList("A.cpp", "A.cpp"), Collections.singletonList(config), (tempDir, paths) -> {
+			for (String path : paths) {
+				File file = new File(path);
+				assertThat(file.getName()).isEqualTo("A.cpp");
+				seenConfig.add(read(InPlaceBatch.findUpwards(file.getParentFile(), ".config").toPath(), StandardCharsets.UTF_8));
+				Files.write(file.toPath(), read(file.toPath(), StandardCharsets.UTF_8).toUpperCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+			}
+			return new ProcessRunner.Result(paths, 0, new byte[0], new byte[0]);
+		});
+		assertThat(formatted).containsExactly("A\n", "B\n");
+		assertThat(seenConfig).containsExactly("upper", "upper");
+	}
+
+	@Test
+	public void failureMeansNoResults() throws IOException, InterruptedException {
+		List<String> tempDirs = new ArrayList<>();
+		List<String> formatted = InPlaceBatch.format(Arrays.asList("a\n", "b\n"), Arrays.asList("a.py", "b.py"), Collections.emptyList(), (tempDir, paths) -> {
+			assertThat(new File(paths.get(0)).getParentFile().getParentFile()).isEqualTo(tempDir.toFile());
+			tempDirs.add(tempDir.toString());
+			return new ProcessRunner.Result(paths, 123, new byte[0], new byte[0]);
+		});
+		assertThat(formatted).containsExactly(null, null);
+		// and the temp dir is cleaned up
+		assertThat(Paths.get(tempDirs.get(0))).doesNotExist();
+	}
+}
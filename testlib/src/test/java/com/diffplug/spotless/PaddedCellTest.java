@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -117,6 +117,30 @@ public class PaddedCellTest {
 		misbehaved(input -> input + " ", "", DIVERGE, " ,  ,   ,    ,     ,      ,       ,        ,         ,          ", null);
 	}
 
+	@Test
+	public void calculateDirtyStateFormatsEachInputOnce() throws IOException {
+		List<String> inputs = new ArrayList<>();
+		FormatterFunc pingPong = input -> {
+			inputs.add(input);
+			return input.equals("A") ? "B" : "A";
+		};
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(folder.getRoot().toPath())
+				.steps(Collections.singletonList(FormatterStep.createNeverUpToDate("step", pingPong))).build()) {
+
+			File file = folder.newFile();
+			Files.write(file.toPath(), "CCC".getBytes(StandardCharsets.UTF_8));
+
+			PaddedCell.DirtyState dirtyState = PaddedCell.calculateDirtyState(formatter, file);
+			Assert.assertFalse(dirtyState.isClean());
+			Assert.assertArrayEquals("A".getBytes(StandardCharsets.UTF_8), dirtyState.canonicalBytes());
+			// the padded check repeats the first two passes, but it doesn't run the step again for them
+			Assert.assertEquals(Arrays.asList("CCC", "A", "B"), inputs);
+		}
+	}
+
 	@Test
 	public void cycleOrder() {
 		BiConsumer<String, String> testCase = (unorderedStr, canonical) -> {
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+public class SpotlessCacheTest extends ResourceHarness {
+	@Test
+	public void evictedClassLoaderIsClosedOnceItsLeaseIsClosed() throws Exception {
+		SpotlessCache cache = new SpotlessCache(1, Long.MAX_VALUE);
+		JarState a = jarState("a");
+		JarState b = jarState("b");
+
+		SpotlessCache.Lease lease = new SpotlessCache.Lease();
+		ClassLoader loaderA = lease.track(() -> cache.classloader(a));
+		assertThat(loaderA.getResource("a.txt")).isNotNull();
+
+		// evicts a, but the lease still uses it
+		try (SpotlessCache.Lease other = new SpotlessCache.Lease()) {
+			other.track(() -> cache.classloader(b));
+		}
+		assertThat(cache.cache).hasSize(1);
+		assertThat(loaderA.getResource("a.txt")).isNotNull();
+
+		lease.close();
+		assertThat(loaderA.getResource("a.txt")).isNull();
+	}
+
+	@Test
+	public void evictedClassLoaderWhichIsNotLeasedIsClosedRightAway() throws Exception {
+		SpotlessCache cache = new SpotlessCache(1, Long.MAX_VALUE);
+		JarState a = jarState("a");
+		ClassLoader loaderA;
+		try (SpotlessCache.Lease lease = new SpotlessCache.Lease()) {
+			loaderA = lease.track(() -> cache.classloader(a));
+		}
+		assertThat(loaderA.getResource("a.txt")).isNotNull();
+
+		cache.classloader(jarState("b"));
+		assertThat(loaderA.getResource("a.txt")).isNull();
+		// and looking it up again creates a new one
+		assertThat(cache.classloader(a).getResource("a.txt")).isNotNull();
+	}
+
+	@Test
+	public void evictedClassLoaderWhichWasUsedWithoutALeaseIsNeverClosed() throws Exception {
+		SpotlessCache cache = new SpotlessCache(1, Long.MAX_VALUE);
+		JarState a = jarState("a");
+		ClassLoader loaderA = cache.classloader(a);
+
+		cache.classloader(jarState("b"));
+		assertThat(loaderA.getResource("a.txt")).isNotNull();
+	}
+
+	/** Returns the JarState of a jar which contains only `name.txt`. */
+	private JarState jarState(String name) throws IOException {
+		File jar = newFile(name + ".jar");
+		try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar))) {
+			output.putNextEntry(new ZipEntry(name + ".txt"));
+			output.write(name.getBytes("UTF-8"));
+			output.closeEntry();
+		}
+		return JarState.from(name, (withTransitives, coordinates) -> Collections.singleton(jar));
+	}
+}
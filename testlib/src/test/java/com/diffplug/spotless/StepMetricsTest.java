@@ -0,0 +1,126 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class StepMetricsTest extends ResourceHarness {
+	@Test
+	public void recordsEachStep() throws Exception {
+		List<FormatterStep> steps = Arrays.asList(
+				FormatterStep.createNeverUpToDate("upper", input -> input.toUpperCase()),
+				FormatterStep.createNeverUpToDate("fail", input -> {
+					if (input.startsWith("B")) {
+						throw new IllegalArgumentException("no B");
+					}
+					return input + "!";
+				}));
+		StepMetrics metrics = new StepMetrics(steps);
+		Assertions.assertThat(metrics.isEmpty()).isTrue();
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(steps)
+				.exceptionPolicy(FormatExceptionPolicy.failOnlyOnError())
+				.build()
+				.withStepMetrics(metrics)) {
+			File a = setFile("a.txt").toContent("a");
+			File b = setFile("b.txt").toContent("bb");
+			Assertions.assertThat(formatter.compute("a", a)).isEqualTo("A!");
+			Assertions.assertThat(formatter.copyForWorker().compute("bb", b)).isEqualTo("BB");
+		}
+
+		List<StepMetrics.Step> recorded = metrics.steps();
+		Assertions.assertThat(recorded).extracting(StepMetrics.Step::name).containsExactly("upper", "fail");
+		StepMetrics.Step upper = recorded.get(0);
+		Assertions.assertThat(upper.calls()).isEqualTo(2);
+		Assertions.assertThat(upper.failures()).isEqualTo(0);
+		Assertions.assertThat(upper.charsIn()).isEqualTo(3);
+		Assertions.assertThat(upper.charsOut()).isEqualTo(3);
+		StepMetrics.Step fail = recorded.get(1);
+		Assertions.assertThat(fail.calls()).isEqualTo(2);
+		Assertions.assertThat(fail.failures()).isEqualTo(1);
+		Assertions.assertThat(fail.charsIn()).isEqualTo(3);
+		Assertions.assertThat(fail.charsOut()).isEqualTo(2);
+		Assertions.assertThat(fail.percentileNanos(0.5)).isLessThanOrEqualTo(fail.percentileNanos(1.0));
+
+		Assertions.assertThat(metrics.isEmpty()).isFalse();
+		Assertions.assertThat(metrics.summary()).contains("upper", "fail");
+		Assertions.assertThat(metrics.toJson()).contains("{\"name\":\"upper\",\"calls\":2,\"failures\":0,");
+	}
+
+	@Test
+	public void prefetchedStepsAreRecordedOnce() throws Exception {
+		List<FormatterStep> steps = Arrays.asList(
+				FormatterStep.createNeverUpToDate("upper", input -> input.toUpperCase()),
+				FormatterStep.create("trim", "state", state -> new FormatterFunc.Batch() {
+					@Override
+					public String apply(String input) {
+						return input.trim();
+					}
+
+					@Override
+					public List<String> applyBatch(List<String> unix, List<File> files) {
+						List<String> results = new ArrayList<>();
+						for (String input : unix) {
+							results.add(input.trim());
+						}
+						return results;
+					}
+				}));
+		StepMetrics metrics = new StepMetrics(steps);
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(steps)
+				.build()
+				.withStepMetrics(metrics)) {
+			File a = setFile("a.txt").toContent(" a ");
+			File b = setFile("b.txt").toContent(" b ");
+			formatter.prefetch(Arrays.asList(a, b));
+			Assertions.assertThat(formatter.compute(" a ", a)).isEqualTo("A");
+			Assertions.assertThat(formatter.compute(" b ", b)).isEqualTo("B");
+		}
+
+		StepMetrics.Step upper = metrics.steps().get(0);
+		Assertions.assertThat(upper.calls()).isEqualTo(2);
+		Assertions.assertThat(upper.batchCalls()).isEqualTo(0);
+		StepMetrics.Step trim = metrics.steps().get(1);
+		Assertions.assertThat(trim.batchCalls()).isEqualTo(1);
+	}
+
+	@Test
+	public void bucketsBoundTheirValues() {
+		for (long nanos : new long[]{0, 1, 3, 4, 5, 7, 8, 1_000, 123_456_789, Long.MAX_VALUE}) {
+			int bucket = StepMetrics.bucketOf(nanos);
+			long upperBound = StepMetrics.upperBoundOf(bucket);
+			Assertions.assertThat(upperBound).isGreaterThanOrEqualTo(nanos);
+			Assertions.assertThat(upperBound - nanos).isLessThanOrEqualTo(nanos / 4);
+			if (bucket > 0) {
+				Assertions.assertThat(StepMetrics.upperBoundOf(bucket - 1)).isLessThan(nanos);
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.npm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.diffplug.common.collect.ImmutableMap;
+
+public class FormatBatchProtocolTest {
+
+	@Test
+	public void itWritesAllFilesIntoOneRequest() {
+		String json = FormatBatchProtocol.toRequestJson(Arrays.asList(
+				ImmutableMap.of("file_content", "a"),
+				ImmutableMap.of("file_content", "b", "config_options", JsonRawValue.wrap("{}"))));
+		assertThat(json.replaceAll("\\s", "")).isEqualTo("{\"files\":[{\"file_content\":\"a\"},{\"file_content\":\"b\",\"config_options\":{}}]}");
+	}
+
+	@Test
+	public void itReadsResultsWhichContainNewlinesAndHeaders() {
+		String response = "ok 11\nline1\nok 3\n" + "error 5\noops!" + "ok 0\n";
+		assertThat(FormatBatchProtocol.parseResponse(response, 3)).containsExactly("line1\nok 3\n", null, "");
+	}
+
+	@Test
+	public void itCountsLengthInUtf16Chars() {
+		String response = "ok 3\n\u00e4\ud83d\ude00ok 1\nb";
+		assertThat(FormatBatchProtocol.parseResponse(response, 2)).containsExactly("\u00e4\ud83d\ude00", "b");
+	}
+
+	@Test
+	public void itRejectsAMissingResult() {
+		assertThatThrownBy(() -> FormatBatchProtocol.parseResponse("ok 1\na", 2))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void itRejectsATruncatedResult() {
+		assertThatThrownBy(() -> FormatBatchProtocol.parseResponse("ok 10\nshort", 1))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -35,7 +35,8 @@ public class DBeaverSQLFormatterStepTest extends ResourceHarness {
 				.testResource("sql/dbeaver/full.dirty", "sql/dbeaver/full.clean")
 				.testResource("sql/dbeaver/V1_initial.sql.dirty", "sql/dbeaver/V1_initial.sql.clean")
 				.testResource("sql/dbeaver/alter-table.dirty", "sql/dbeaver/alter-table.clean")
-				.testResource("sql/dbeaver/create.dirty", "sql/dbeaver/create.clean");
+				.testResource("sql/dbeaver/create.dirty", "sql/dbeaver/create.clean")
+				.testResource("sql/dbeaver/multiple-statements.dirty", "sql/dbeaver/multiple-statements.clean");
 	}
 
 	@Test